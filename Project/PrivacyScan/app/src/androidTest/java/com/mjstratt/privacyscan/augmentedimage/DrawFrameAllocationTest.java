@@ -0,0 +1,181 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Debug;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import com.google.ar.core.Pose;
+import com.google.ar.core.examples.java.common.rendering.GlCapabilities;
+import com.google.ar.core.examples.java.common.rendering.GlResourceCache;
+import com.google.ar.core.examples.java.common.rendering.GlState;
+import com.google.ar.core.examples.java.common.rendering.GlValidation;
+import com.mjstratt.privacyscan.augmentedimage.rendering.AugmentedImageRenderer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that drawing a frame of augmented images does not allocate once the first frame has been
+ * drawn.
+ *
+ * <p>The frame is drawn as {@code AugmentedImageActivity.onDrawFrame} draws it, into an offscreen
+ * surface: the GL state counters are reset and the buffers cleared, then the tracked images are
+ * walked and their frames drawn, some culled and some unlit. ARCore sessions need a camera, so the
+ * images are given by their index, extent and pose instead of by {@code AugmentedImage} and {@code
+ * Anchor}, and half of them move between frames so that their cached matrices are rebuilt.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DrawFrameAllocationTest {
+  private static final int IMAGE_COUNT = 48;
+  private static final float IMAGE_EXTENT = 0.1f;
+  private static final int MEASURED_FRAMES = 100;
+
+  private EGLDisplay eglDisplay;
+  private EGLContext eglContext;
+  private EGLSurface eglSurface;
+
+  private final GlResourceCache glResourceCache = new GlResourceCache();
+  private final AugmentedImageRenderer augmentedImageRenderer = new AugmentedImageRenderer();
+  private final TrackedImageStore trackedImages = new TrackedImageStore();
+
+  private final float[] viewMatrix = new float[16];
+  private final float[] projectionMatrix = new float[16];
+  private final float[] colorCorrectionRgba = {1.0f, 1.0f, 1.0f, 1.0f};
+  // Image poses of even and odd frames.
+  private final Pose[][] poses = new Pose[2][IMAGE_COUNT];
+
+  @Before
+  public void setUp() throws Exception {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    createGlContext(GlCapabilities.getClientVersion(context));
+    GlState.invalidate();
+    GlValidation.setMode(GlValidation.PER_FRAME);
+    augmentedImageRenderer.createOnGlThread(context, glResourceCache);
+
+    Matrix.setIdentityM(viewMatrix, 0);
+    Matrix.perspectiveM(projectionMatrix, 0, 60.0f, 1.0f, 0.1f, 100.0f);
+
+    // The camera looks down -z: a third of the images are close, a third far away and drawn unlit,
+    // and a third behind the camera and culled. Images of odd indices move by a centimeter.
+    trackedImages.ensureCapacity(IMAGE_COUNT);
+    for (int index = 0; index < IMAGE_COUNT; ++index) {
+      int group = index % 3;
+      float x = 0.02f * (index - IMAGE_COUNT / 2);
+      float z = group == 0 ? -0.5f - 0.02f * index : group == 1 ? -8.0f - 0.1f * index : 2.0f;
+      float move = index % 2 == 0 ? 0.0f : 0.01f;
+      poses[0][index] = Pose.makeTranslation(x, -0.2f, z);
+      poses[1][index] = Pose.makeTranslation(x + move, -0.2f, z);
+      trackedImages.put(index, null, null, TrackedImageStore.STATE_FULL_TRACKING);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    glResourceCache.clear();
+    EGL14.eglMakeCurrent(
+        eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+    EGL14.eglDestroySurface(eglDisplay, eglSurface);
+    EGL14.eglDestroyContext(eglDisplay, eglContext);
+    EGL14.eglTerminate(eglDisplay);
+  }
+
+  @Test
+  @SuppressWarnings("deprecation") // Allocation counting is deprecated, but still counts on ART.
+  public void drawFrame_doesNotAllocate() {
+    // The first frame sizes the per-image caches.
+    drawFrame(0);
+    assertTrue(augmentedImageRenderer.getImageCount() > 0);
+    assertTrue(augmentedImageRenderer.getSimpleImageCount() > 0);
+    assertTrue(augmentedImageRenderer.getCulledImageCount() > 0);
+
+    Debug.startAllocCounting();
+    Debug.resetThreadAllocCount();
+    for (int frame = 1; frame <= MEASURED_FRAMES; ++frame) {
+      drawFrame(frame);
+    }
+    int allocCount = Debug.getThreadAllocCount();
+    int allocSize = Debug.getThreadAllocSize();
+    Debug.stopAllocCounting();
+
+    assertEquals(
+        "Allocated " + allocSize + " bytes in " + MEASURED_FRAMES + " frames", 0, allocCount);
+  }
+
+  private void drawFrame(int frame) {
+    GlState.resetCounters();
+    GlState.depthMask(true);
+    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+
+    Pose[] framePoses = poses[frame % 2];
+    augmentedImageRenderer.beginFrame(viewMatrix, projectionMatrix, colorCorrectionRgba);
+    for (int i = 0; i < trackedImages.size(); ++i) {
+      int index = trackedImages.indexAt(i);
+      if (trackedImages.getState(index) == TrackedImageStore.STATE_FULL_TRACKING) {
+        augmentedImageRenderer.draw(index, IMAGE_EXTENT, IMAGE_EXTENT, framePoses[index]);
+      }
+    }
+    augmentedImageRenderer.endFrame();
+
+    GlValidation.checkFrame(DrawFrameAllocationTest.class.getSimpleName());
+  }
+
+  /** Creates an OpenGL ES context with a small offscreen surface, current on this thread. */
+  private void createGlContext(int clientVersion) {
+    eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+    int[] version = new int[2];
+    assertTrue(EGL14.eglInitialize(eglDisplay, version, 0, version, 1));
+
+    int[] configAttributes = {
+      EGL14.EGL_RENDERABLE_TYPE,
+      clientVersion >= 3 ? EGLExt.EGL_OPENGL_ES3_BIT_KHR : EGL14.EGL_OPENGL_ES2_BIT,
+      EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+      EGL14.EGL_RED_SIZE, 8,
+      EGL14.EGL_GREEN_SIZE, 8,
+      EGL14.EGL_BLUE_SIZE, 8,
+      EGL14.EGL_ALPHA_SIZE, 8,
+      EGL14.EGL_DEPTH_SIZE, 16,
+      EGL14.EGL_NONE
+    };
+    EGLConfig[] configs = new EGLConfig[1];
+    int[] configCount = new int[1];
+    assertTrue(
+        EGL14.eglChooseConfig(
+            eglDisplay, configAttributes, 0, configs, 0, configs.length, configCount, 0));
+    assertTrue("No EGL config", configCount[0] > 0);
+
+    int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, clientVersion, EGL14.EGL_NONE};
+    eglContext =
+        EGL14.eglCreateContext(
+            eglDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+    int[] surfaceAttributes = {EGL14.EGL_WIDTH, 64, EGL14.EGL_HEIGHT, 64, EGL14.EGL_NONE};
+    eglSurface = EGL14.eglCreatePbufferSurface(eglDisplay, configs[0], surfaceAttributes, 0);
+    assertTrue(EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext));
+  }
+}
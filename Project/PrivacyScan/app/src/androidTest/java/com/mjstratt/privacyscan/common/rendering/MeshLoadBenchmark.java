@@ -0,0 +1,166 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjData;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the load time of the bundled models when parsed from OBJ, as the app did at startup,
+ * with mapping the binary meshes compiled from them at build time.
+ *
+ * <p>Both paths end with the vertex and index data in memory, ready for {@code glBufferData}; a
+ * byte of every page of the mapped data is read so that paging it in is counted. The median time
+ * of each path is logged and reported to the instrumentation, per model. The test only checks that
+ * both paths produce the same mesh, as the times depend on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MeshLoadBenchmark {
+  private static final String TAG = MeshLoadBenchmark.class.getSimpleName();
+
+  private static final String[] OBJ_ASSET_NAMES = {
+    "models/anchor.obj",
+    "models/frame_upper_left.obj",
+    "models/frame_upper_right.obj",
+    "models/frame_lower_right.obj",
+    "models/frame_lower_left.obj",
+  };
+  private static final int WARMUP_RUNS = 5;
+  private static final int MEASURED_RUNS = 25;
+  private static final int PAGE_SIZE = 4096;
+
+  // Results of the loads, kept so that no work can be skipped.
+  private long sink;
+
+  @Test
+  public void objParsingVersusBinaryMeshMapping() throws IOException {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    Bundle results = new Bundle();
+    long objTotalNanos = 0;
+    long meshTotalNanos = 0;
+
+    for (String objAssetName : OBJ_ASSET_NAMES) {
+      String meshAssetName = objAssetName.replace(".obj", ".mesh");
+
+      // Same vertices and indices either way.
+      Obj obj = parseObj(context, objAssetName);
+      BinaryMesh mesh = BinaryMesh.map(context, meshAssetName);
+      assertEquals(objAssetName, obj.getNumVertices(), mesh.vertexCount);
+      assertEquals(objAssetName, 3 * obj.getNumFaces(), mesh.indexCount);
+
+      long[] objNanos = new long[MEASURED_RUNS];
+      long[] meshNanos = new long[MEASURED_RUNS];
+      for (int run = -WARMUP_RUNS; run < MEASURED_RUNS; ++run) {
+        long startNanos = System.nanoTime();
+        sink += loadObj(context, objAssetName);
+        long objEndNanos = System.nanoTime();
+        sink += loadBinaryMesh(context, meshAssetName);
+        long meshEndNanos = System.nanoTime();
+        if (run >= 0) {
+          objNanos[run] = objEndNanos - startNanos;
+          meshNanos[run] = meshEndNanos - objEndNanos;
+        }
+      }
+
+      long objMedian = median(objNanos);
+      long meshMedian = median(meshNanos);
+      objTotalNanos += objMedian;
+      meshTotalNanos += meshMedian;
+      String line =
+          String.format(
+              Locale.ROOT,
+              "%s: OBJ %d us, binary mesh %d us (%.1fx)",
+              objAssetName,
+              objMedian / 1000,
+              meshMedian / 1000,
+              (double) objMedian / meshMedian);
+      Log.i(TAG, line);
+      results.putString(objAssetName, line);
+    }
+
+    String total =
+        String.format(
+            Locale.ROOT,
+            "All models: OBJ %d us, binary mesh %d us (%.1fx)",
+            objTotalNanos / 1000,
+            meshTotalNanos / 1000,
+            (double) objTotalNanos / meshTotalNanos);
+    Log.i(TAG, total + " [" + sink + "]");
+    results.putString("total", total);
+    InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+  }
+
+  private static Obj parseObj(Context context, String objAssetName) throws IOException {
+    try (InputStream inputStream = context.getAssets().open(objAssetName)) {
+      return ObjUtils.convertToRenderable(ObjReader.read(inputStream));
+    }
+  }
+
+  /** Loads a model the way the app did before binary meshes, up to the GL upload. */
+  private static int loadObj(Context context, String objAssetName) throws IOException {
+    Obj obj = parseObj(context, objAssetName);
+    IntBuffer wideIndices = ObjData.getFaceVertexIndices(obj, 3);
+    FloatBuffer vertices = ObjData.getVertices(obj);
+    FloatBuffer texCoords = ObjData.getTexCoords(obj, 2);
+    FloatBuffer normals = ObjData.getNormals(obj);
+    ShortBuffer indices =
+        ByteBuffer.allocateDirect(2 * wideIndices.limit())
+            .order(ByteOrder.nativeOrder())
+            .asShortBuffer();
+    while (wideIndices.hasRemaining()) {
+      indices.put((short) wideIndices.get());
+    }
+    return vertices.limit() + texCoords.limit() + normals.limit() + indices.position();
+  }
+
+  /** Maps a binary mesh and pages all of it in, as the GL upload would. */
+  private static int loadBinaryMesh(Context context, String meshAssetName) throws IOException {
+    BinaryMesh mesh = BinaryMesh.map(context, meshAssetName);
+    int sum = 0;
+    for (ByteBuffer buffer : new ByteBuffer[] {mesh.vertices, mesh.indices}) {
+      for (int i = 0; i < buffer.limit(); i += PAGE_SIZE) {
+        sum += buffer.get(i);
+      }
+    }
+    return sum;
+  }
+
+  private static long median(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+}
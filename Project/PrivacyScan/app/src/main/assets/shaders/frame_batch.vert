@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Draws the four frame corners of up to MAX_INSTANCES images. Every vertex carries the index of
+// its image and the direction its corner is moved in, from the image center, by the half extent
+// of the image. With UNLIT set to 1, the lighting inputs are left out, for images small on screen.
+
+uniform mat4 u_Projection;
+#if !UNLIT
+uniform vec4 u_LightDirection;
+#endif
+
+// Per image.
+uniform mat4 u_ModelView[MAX_INSTANCES];
+uniform vec4 u_HalfExtent[MAX_INSTANCES];
+uniform vec4 u_ObjColor[MAX_INSTANCES];
+
+attribute vec4 a_Position;
+#if !UNLIT
+attribute vec3 a_Normal;
+#endif
+attribute vec2 a_TexCoord;
+// xy: direction of the corner in the image plane (x, z), z: index of the image.
+attribute vec3 a_Corner;
+
+#if !UNLIT
+varying vec3 v_ViewPosition;
+varying vec3 v_ViewNormal;
+varying vec3 v_ViewLightDirection;
+#endif
+varying vec2 v_TexCoord;
+varying vec4 v_ObjColor;
+
+void main() {
+    int instance = int(a_Corner.z + 0.5);
+    mat4 modelView = u_ModelView[instance];
+    vec4 halfExtent = u_HalfExtent[instance];
+
+    vec4 position = a_Position
+            + vec4(a_Corner.x * halfExtent.x, 0.0, a_Corner.y * halfExtent.z, 0.0);
+    vec4 viewPosition = modelView * position;
+
+#if !UNLIT
+    v_ViewPosition = viewPosition.xyz;
+    v_ViewNormal = normalize((modelView * vec4(a_Normal, 0.0)).xyz);
+    v_ViewLightDirection = normalize((modelView * u_LightDirection).xyz);
+#endif
+    v_TexCoord = a_TexCoord;
+    v_ObjColor = u_ObjColor[instance];
+    gl_Position = u_Projection * viewPosition;
+}
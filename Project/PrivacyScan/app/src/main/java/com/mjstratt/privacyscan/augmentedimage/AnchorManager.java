@@ -0,0 +1,203 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import android.util.Log;
+import com.google.ar.core.Anchor;
+import com.google.ar.core.AugmentedImage;
+import com.google.ar.core.Pose;
+import com.google.ar.core.TrackingState;
+import java.util.Arrays;
+
+/**
+ * Owns the center pose anchors created for augmented images, keyed by the index of the image in
+ * the database.
+ *
+ * <p>Every anchor ARCore keeps attached is updated on every frame, so the number of live anchors is
+ * capped. Anchors of images that stopped being tracked stay attached until they are the least
+ * recently tracked and room is needed, so that an image that reappears can get its anchor back.
+ * Anchors of images under full tracking are never evicted; an image that finds no room gets no
+ * anchor until one is freed. When an image regains full tracking close to where its anchor already
+ * is, the anchor is reused instead of being replaced. Must only be used from the GL thread.
+ */
+public class AnchorManager {
+  private static final String TAG = AnchorManager.class.getSimpleName();
+
+  /** Anchors are reused when the image reappears within this distance of them. */
+  private static final float REUSE_DISTANCE_METERS = 0.05f;
+
+  /** Notified when an anchor is detached to make room for the anchor of another image. */
+  public interface OnAnchorEvictedListener {
+    void onAnchorEvicted(int index);
+  }
+
+  private final int maxAnchors;
+  private int anchorCount = 0;
+  // Whether the last image that found no room was logged, to log once per shortage.
+  private boolean shortageLogged = false;
+  private OnAnchorEvictedListener onAnchorEvictedListener;
+
+  // Per image index.
+  private Anchor[] anchors = new Anchor[0];
+  private long[] lastUsedNanos = new long[0];
+  private boolean[] needsValidation = new boolean[0];
+  private boolean[] fullTracking = new boolean[0];
+
+  /** @param maxAnchors The maximum number of anchors attached at any time. */
+  public AnchorManager(int maxAnchors) {
+    this.maxAnchors = maxAnchors;
+  }
+
+  public void setOnAnchorEvictedListener(OnAnchorEvictedListener listener) {
+    onAnchorEvictedListener = listener;
+  }
+
+  /** Grows the per-image storage to hold {@code numImages} images. */
+  public void ensureCapacity(int numImages) {
+    if (numImages <= anchors.length) {
+      return;
+    }
+    anchors = Arrays.copyOf(anchors, numImages);
+    lastUsedNanos = Arrays.copyOf(lastUsedNanos, numImages);
+    needsValidation = Arrays.copyOf(needsValidation, numImages);
+    fullTracking = Arrays.copyOf(fullTracking, numImages);
+  }
+
+  /**
+   * Returns the anchor of an image that is in the {@link TrackingState#TRACKING} state, creating
+   * one at the image center if there is none. If the image lost full tracking since the anchor was
+   * created, the anchor is checked against the current image pose once full tracking resumes, and
+   * replaced only if the image has moved.
+   *
+   * @param augmentedImage The tracked image.
+   * @param nowNanos The current time, used to find the least recently used anchor.
+   * @return The anchor, or {@code null} if the image index is outside of the database or every
+   *     anchor belongs to an image under full tracking.
+   */
+  public Anchor acquire(AugmentedImage augmentedImage, long nowNanos) {
+    int index = augmentedImage.getIndex();
+    if (index < 0 || index >= anchors.length) {
+      return null;
+    }
+
+    boolean fullTracking =
+        augmentedImage.getTrackingMethod() == AugmentedImage.TrackingMethod.FULL_TRACKING;
+    Anchor anchor = anchors[index];
+    lastUsedNanos[index] = nowNanos;
+    this.fullTracking[index] = fullTracking;
+
+    if (anchor != null && needsValidation[index] && fullTracking) {
+      needsValidation[index] = false;
+      if (anchor.getTrackingState() == TrackingState.STOPPED
+          || distance(anchor.getPose(), augmentedImage.getCenterPose()) > REUSE_DISTANCE_METERS) {
+        release(index);
+        anchor = null;
+      }
+    }
+
+    if (anchor == null) {
+      if (anchorCount >= maxAnchors && !evictLeastRecentlyUsed(index)) {
+        if (!shortageLogged) {
+          shortageLogged = true;
+          Log.w(TAG, "All " + maxAnchors + " anchors are fully tracked, image " + index
+              + " gets none for now");
+        }
+        return null;
+      }
+      shortageLogged = false;
+      anchor = augmentedImage.createAnchor(augmentedImage.getCenterPose());
+      anchors[index] = anchor;
+      anchorCount++;
+    }
+
+    if (!fullTracking) {
+      needsValidation[index] = true;
+    }
+    return anchor;
+  }
+
+  /** Returns the anchor of the image, or {@code null} if it has none or it was evicted. */
+  public Anchor getAnchor(int index) {
+    return index >= 0 && index < anchors.length ? anchors[index] : null;
+  }
+
+  /**
+   * Notes that the image is STOPPED. Its anchor stays attached, to be reused if the image reappears
+   * where it was, until it is evicted to make room for the anchor of another image.
+   */
+  public void onImageStopped(int index) {
+    if (index < 0 || index >= anchors.length) {
+      return;
+    }
+    fullTracking[index] = false;
+    needsValidation[index] = anchors[index] != null;
+  }
+
+  /** Detaches the anchor of the image, if any. */
+  public void release(int index) {
+    if (index < 0 || index >= anchors.length || anchors[index] == null) {
+      return;
+    }
+    anchors[index].detach();
+    anchors[index] = null;
+    needsValidation[index] = false;
+    anchorCount--;
+  }
+
+  /** Detaches every anchor. Should be called before the session is closed or reset. */
+  public void releaseAll() {
+    for (int i = 0; i < anchors.length; ++i) {
+      release(i);
+    }
+  }
+
+  /** Returns the number of anchors currently attached. */
+  public int getAnchorCount() {
+    return anchorCount;
+  }
+
+  /**
+   * Detaches the least recently used anchor whose image is not under full tracking.
+   *
+   * @return Whether an anchor was detached.
+   */
+  private boolean evictLeastRecentlyUsed(int excludedIndex) {
+    int oldest = -1;
+    for (int i = 0; i < anchors.length; ++i) {
+      if (i != excludedIndex
+          && anchors[i] != null
+          && !fullTracking[i]
+          && (oldest < 0 || lastUsedNanos[i] < lastUsedNanos[oldest])) {
+        oldest = i;
+      }
+    }
+    if (oldest < 0) {
+      return false;
+    }
+    release(oldest);
+    if (onAnchorEvictedListener != null) {
+      onAnchorEvictedListener.onAnchorEvicted(oldest);
+    }
+    return true;
+  }
+
+  private static float distance(Pose a, Pose b) {
+    float dx = a.tx() - b.tx();
+    float dy = a.ty() - b.ty();
+    float dz = a.tz() - b.tz();
+    return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
+}
@@ -25,23 +25,31 @@ import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
+import android.os.PowerManager;
 import android.util.Log;
-import android.util.Pair;
 import android.util.SparseArray;
+import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.PopupMenu;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -55,15 +63,24 @@ import com.google.ar.core.ArCoreApk;
 import com.google.ar.core.AugmentedImage;
 import com.google.ar.core.AugmentedImageDatabase;
 import com.google.ar.core.Camera;
+import com.google.ar.core.CameraConfig;
 import com.google.ar.core.Config;
 import com.google.ar.core.Frame;
+import com.google.ar.core.LightEstimate;
 import com.google.ar.core.Session;
+import com.google.ar.core.TrackingState;
 import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.DisplayRotationHelper;
 import com.google.ar.core.examples.java.common.helpers.FullScreenHelper;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.helpers.TrackingStateHelper;
+import com.google.ar.core.examples.java.common.helpers.UiDispatcher;
+import com.google.ar.core.examples.java.common.helpers.UpdateModeSettings;
 import com.google.ar.core.examples.java.common.rendering.BackgroundRenderer;
+import com.google.ar.core.examples.java.common.rendering.GlCapabilities;
+import com.google.ar.core.examples.java.common.rendering.GlResourceCache;
+import com.google.ar.core.examples.java.common.rendering.GlState;
+import com.google.ar.core.examples.java.common.rendering.GlValidation;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
 import com.google.ar.core.exceptions.UnavailableApkTooOldException;
 import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
@@ -74,20 +91,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import com.mjstratt.privacyscan.augmentedimage.rendering.AugmentedImageRenderer;
-import com.neovisionaries.bluetooth.ble.advertising.ADPayloadParser;
-import com.neovisionaries.bluetooth.ble.advertising.ADStructure;
 import com.neovisionaries.bluetooth.ble.advertising.EddystoneTLM;
-import com.neovisionaries.bluetooth.ble.advertising.EddystoneUID;
-import com.neovisionaries.bluetooth.ble.advertising.EddystoneURL;
 
 /**
  * This app is based in part on the augmented_image_java sample project provided by Google in the ARCore
@@ -110,25 +121,135 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
   private boolean installRequested;
 
   private Session session;
-  private final SnackbarHelper messageSnackbarHelper = new SnackbarHelper();
+  // Applies UI state written by the GL, QR and Bluetooth threads, once per display frame.
+  private final UiDispatcher uiDispatcher = new UiDispatcher();
+  private final SnackbarHelper messageSnackbarHelper = new SnackbarHelper(uiDispatcher);
   private DisplayRotationHelper displayRotationHelper;
-  private final TrackingStateHelper trackingStateHelper = new TrackingStateHelper(this);
+  private final TrackingStateHelper trackingStateHelper = new TrackingStateHelper(this, uiDispatcher);
 
   private final BackgroundRenderer backgroundRenderer = new BackgroundRenderer();
   private final AugmentedImageRenderer augmentedImageRenderer = new AugmentedImageRenderer();
+  // GL resources shared between renderers. GL thread only.
+  private final GlResourceCache glResourceCache = new GlResourceCache();
+  // Draw calls, and drawn and culled images, of the last frame, to log changes. GL thread only.
+  private int lastDrawCallCount = 0;
+  private int lastDrawnImageCount = 0;
+  private int lastCulledImageCount = 0;
 
   private boolean shouldConfigureSession = false;
 
-  // Augmented image and its associated center pose anchor, keyed by index of the augmented image in
-  // the database.
-  private final Map<Integer, Pair<AugmentedImage, Anchor>> augmentedImageMap = new HashMap<>();
+  // Per-frame scratch state, allocated here so that onDrawFrame does not allocate.
+  private final float[] projmtx = new float[16];
+  private final float[] viewmtx = new float[16];
+  private final float[] colorCorrectionRgba = new float[4];
+
+  // Color correction used when there is no light estimate: unshifted color, full intensity.
+  private static final float[] NEUTRAL_COLOR_CORRECTION = {1.0f, 1.0f, 1.0f, 1.0f};
+
+  // ARCore subsystems enabled besides image tracking. The profile chosen in the settings is used
+  // unless the governor pauses optional stages, and can be switched while the session runs.
+  private SessionProfile preferredSessionProfile = SessionProfile.LABELS_ONLY;
+  private SessionProfile sessionProfile = preferredSessionProfile;
+  private volatile boolean lightEstimationEnabled = sessionProfile.isLightEstimationEnabled();
+
+  // Timestamp of the last camera image processed, to detect frames without a new one.
+  private long lastCameraTimestamp = 0;
+  private final UpdateModeSettings updateModeSettings = new UpdateModeSettings();
+  // The config is kept, so that settings can be changed while the session runs.
+  private Config sessionConfig;
+
+  // Renders on demand at a reduced cadence while nothing happens on screen, or while the
+  // governor asks for a lower render rate.
+  private static final long IDLE_RENDER_INTERVAL_MS = 200;
+  private final IdleRenderPolicy idleRenderPolicy = new IdleRenderPolicy();
+  private final Object renderModeLock = new Object();
+  private volatile IdleRenderPolicy.Mode renderMode = IdleRenderPolicy.Mode.ACTIVE;
+  private long governorRenderIntervalMs = 0;
+  // Interval of on demand renders, 0 when rendering continuously. Guarded by renderModeLock.
+  private long renderIntervalMs = 0;
+  // Whether on demand renders may be posted, false while paused. Guarded by renderModeLock.
+  private boolean renderTickEnabled = false;
+  private final Handler renderHandler = new Handler(Looper.getMainLooper());
+  private final Runnable renderTick =
+          new Runnable() {
+            @Override
+            public void run() {
+              // Reposts under the lock, so that a switch back to continuous rendering, which
+              // removes the tick, cannot come between the render request and the repost.
+              synchronized (renderModeLock) {
+                if (!renderTickEnabled || renderIntervalMs == 0) {
+                  return;
+                }
+                surfaceView.requestRender();
+                renderHandler.postDelayed(this, renderIntervalMs);
+              }
+            }
+          };
+
+  // Sheds work under thermal and battery pressure, re-evaluated periodically on the UI Thread.
+  private static final long GOVERNOR_INTERVAL_MS = 5000;
+  private final PowerGovernor powerGovernor = new PowerGovernor();
+  private PowerManager powerManager;
+  private volatile boolean optionalStagesEnabled = true;
+  private CameraConfig defaultCameraConfig;
+
+  // Picks the camera config for recognition: 60 fps when available, a CPU image of about VGA.
+  private CameraConfigSelector cameraConfigSelector;
+  private boolean cameraResolutionReduced = false;
+  private final Runnable governorTick =
+          new Runnable() {
+            @Override
+            public void run() {
+              updatePowerGovernor();
+              renderHandler.postDelayed(this, GOVERNOR_INTERVAL_MS);
+            }
+          };
+
+  // Visibility of the "fit to scan" overlay, hidden once an image is tracked.
+  private final UiDispatcher.Slot<Integer> fitToScanVisibility =
+          uiDispatcher.createSlot(View.VISIBLE, visibility -> fitToScanView.setVisibility(visibility));
+
+  // Device labels resolved by the detection worker, shown on the UI Thread.
+  private static final class DeviceLabelEvent {
+    DeviceLabel label;
+  }
+  private final UiDispatcher.Channel<DeviceLabelEvent> deviceLabels =
+          uiDispatcher.createChannel(
+                  /*capacity=*/ 8,
+                  DeviceLabelEvent::new,
+                  event -> {
+                    DeviceLabel label = event.label;
+                    event.label = null;
+                    buildSnackbarDisplay(label.foundDevice, label.deviceData, label.dataTypes);
+                  });
+
+  // Augmented images with their center pose anchor and tracking state, indexed by index of the
+  // augmented image in the database.
+  private final TrackedImageStore trackedImages = new TrackedImageStore();
+
+  // Owns the center pose anchors of augmented images. Anchors are capped so that per-frame ARCore
+  // cost stays flat during long survey sessions; stopped images keep theirs until room is needed.
+  private static final int MAX_ANCHORS = 32;
+  private final AnchorManager anchorManager = new AnchorManager(MAX_ANCHORS);
+
+  // Recognition latency and tracking quality per augmented image, recorded from the frame loop.
+  private final TrackingMetrics trackingMetrics = new TrackingMetrics();
+
+  // Decodes QR codes of labels that are not in the augmented image database.
+  private QrCodeScanner qrCodeScanner;
+
+  // Snackbar of the last device found, UI Thread only.
+  private Snackbar deviceSnackbar;
+
+  // Resolves the labels of detected images, QR codes and Bluetooth devices off the GL and UI threads.
+  private DetectionWorker detectionWorker;
 
   // Bluetooth LE Scanning Related ----------------------------------------------------------
   private BluetoothAdapter mBluetoothAdapter;
   private BluetoothLeScanner mLEScanner;
   private ScanSettings settings;
   private List<ScanFilter> filters;
-  private boolean mScanning;
+  private volatile boolean mScanning;
   private Handler mHandler;
 
   private static final int REQUEST_ENABLE_BT = 1;
@@ -140,21 +261,59 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
     super.onCreate(savedInstanceState);
     setContentView(R.layout.activity_main);
     surfaceView = findViewById(R.id.surfaceview);
+    surfaceView.setOnTouchListener(new View.OnTouchListener() {
+      @Override
+      public boolean onTouch(View v, MotionEvent event) {
+        // Wake rendering up, and let the view handle the event.
+        idleRenderPolicy.onUserInput();
+        surfaceView.requestRender();
+        return false;
+      }
+    });
     surfaceView.setOnLongClickListener(new View.OnLongClickListener() {
       @Override
       public boolean onLongClick(View v) {
-        // Restart App
-        recreate();
+        // Reset the scan, keeping the session, GL resources and scanners alive
+        softReset();
 
         return true;
       }
     });
 
+    findViewById(R.id.settings_button).setOnClickListener(new View.OnClickListener() {
+      @Override
+      public void onClick(View v) {
+        PopupMenu popup = new PopupMenu(AugmentedImageActivity.this, v);
+        popup.setOnMenuItemClickListener(AugmentedImageActivity.this::settingsMenuClick);
+        popup.inflate(R.menu.settings_menu);
+        popup.getMenu()
+                .findItem(R.id.latest_camera_image)
+                .setChecked(updateModeSettings.isLatestCameraImageEnabled());
+        popup.getMenu()
+                .findItem(getSessionProfileMenuItemId(preferredSessionProfile))
+                .setChecked(true);
+        popup.show();
+      }
+    });
+
     displayRotationHelper = new DisplayRotationHelper(/*context=*/ this);
+    updateModeSettings.onCreate(this);
+    GlValidation.setMode(BuildConfig.GL_VALIDATION);
+    cameraConfigSelector =
+            new CameraConfigSelector(
+                    this,
+                    /*targetFps=*/ 60,
+                    /*targetImageWidth=*/ 640,
+                    /*targetImageHeight=*/ 480,
+                    /*useDepthSensor=*/ false);
+    anchorManager.setOnAnchorEvictedListener(trackedImages::clearAnchor);
+    detectionWorker = new DetectionWorker(this, this::publishDeviceLabel);
+    qrCodeScanner = new QrCodeScanner(detectionWorker::onQrCodeDecoded);
 
     // Set up renderer.
     surfaceView.setPreserveEGLContextOnPause(true);
-    surfaceView.setEGLContextClientVersion(2);
+    // OpenGL ES 3 where available, for vertex array objects; the renderers fall back to OpenGL ES 2.
+    surfaceView.setEGLContextClientVersion(GlCapabilities.getClientVersion(this));
     surfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0); // Alpha used for plane blending.
     surfaceView.setRenderer(this);
     surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
@@ -168,6 +327,7 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
 
     // BTLE Scanning -------------------------------------------------------------------------------
     mHandler = new Handler();
+    powerManager = (PowerManager) getSystemService(POWER_SERVICE);
 
     // Use this check to determine whether BLE is supported on the device.  Then you can
     // selectively disable BLE-related features.
@@ -193,6 +353,9 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
   @Override
   protected void onDestroy() {
     if (session != null) {
+      // Detach all anchors so ARCore stops updating them.
+      anchorManager.releaseAll();
+
       // Explicitly close ARCore Session to release native resources.
       // Review the API reference for important considerations before calling close() in apps with
       // more complicated lifecycle requirements:
@@ -200,6 +363,8 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
       session.close();
       session = null;
     }
+    qrCodeScanner.close();
+    detectionWorker.close();
 
     super.onDestroy();
   }
@@ -266,20 +431,24 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
       session = null;
       return;
     }
+    trackingMetrics.onSessionStarted(System.nanoTime());
+    idleRenderPolicy.reset(System.nanoTime());
+    resetRenderMode();
     surfaceView.onResume();
     displayRotationHelper.onResume();
 
-    fitToScanView.setVisibility(View.VISIBLE);
+    fitToScanVisibility.set(View.VISIBLE);
     //updateDetailDisplay("", "", "", new String[0]);
 
     // BTLE Scan
     mLEScanner = mBluetoothAdapter.getBluetoothLeScanner();
-    settings = new ScanSettings.Builder()
-            .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER)
-            .setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES)
-            .build();
     filters = new ArrayList<ScanFilter>();
 
+    // Apply the current pressure level, then keep it up to date.
+    updatePowerGovernor();
+    applyPowerGovernorLevel();
+    renderHandler.postDelayed(governorTick, GOVERNOR_INTERVAL_MS);
+
     scanLeDevice(true);
   }
 
@@ -297,16 +466,26 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
   @Override
   public void onPause() {
     super.onPause();
+    // The ticks are stopped even without a session, which is dropped if it fails to resume. A
+    // frame still being drawn cannot post the render tick again once it is disabled.
+    stopRenderTick();
+    renderHandler.removeCallbacks(governorTick);
     if (session != null) {
       // Note that the order matters - GLSurfaceView is paused first so that it does not try
       // to query the session. If Session is paused before GLSurfaceView, GLSurfaceView may
       // still call session.update() and get a SessionPausedException.
       displayRotationHelper.onPause();
       surfaceView.onPause();
+      trackingMetrics.onSessionPaused(System.nanoTime());
       session.pause();
+      idleRenderPolicy.stop(System.nanoTime());
 
       // Disable BT Scanning
       scanLeDevice(false);
+
+      // Write the recognition metrics of this session to the log.
+      Log.i(TAG, trackingMetrics.snapshot(System.nanoTime()).toString());
+      Log.i(TAG, idleRenderPolicy.toString());
     }
   }
 
@@ -338,9 +517,14 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
 
     // Prepare the rendering objects. This involves reading shaders, so may throw an IOException.
     try {
+      // A new context has none of the previously cached resources, and its own GL state.
+      glResourceCache.clear();
+      GlState.invalidate();
+
       // Create the texture and pass it to ARCore session to be filled during update().
       backgroundRenderer.createOnGlThread(/*context=*/ this);
-      augmentedImageRenderer.createOnGlThread(/*context=*/ this);
+      augmentedImageRenderer.createOnGlThread(/*context=*/ this, glResourceCache);
+      Log.i(TAG, "Loaded " + glResourceCache.size() + " unique GL resources");
     } catch (IOException e) {
       Log.e(TAG, "Failed to read an asset file", e);
     }
@@ -354,7 +538,11 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
 
   @Override
   public void onDrawFrame(GL10 gl) {
-    // Clear screen to notify driver it should not load any pixels from previous frame.
+    GlState.resetCounters();
+
+    // Clear screen to notify driver it should not load any pixels from previous frame. The depth
+    // buffer is only cleared while depth writes are enabled.
+    GlState.depthMask(true);
     GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
     if (session == null) {
@@ -369,52 +557,334 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
 
       // Obtain the current frame from ARSession. When the configuration is set to
       // UpdateMode.BLOCKING (it is by default), this will throttle the rendering to the
-      // camera framerate.
+      // camera framerate. With UpdateMode.LATEST_CAMERA_IMAGE, it returns the same frame
+      // again until the camera produces a new image.
       Frame frame = session.update();
+      // ARCore binds the camera texture during the update.
+      GlState.invalidateTextureBindings();
       Camera camera = frame.getCamera();
 
-      // Keep the screen unlocked while tracking, but allow it to lock when tracking stops.
-      trackingStateHelper.updateKeepScreenOnFlag(camera.getTrackingState());
+      // Work that only depends on the camera image is skipped until there is a new one.
+      long cameraTimestamp = frame.getTimestamp();
+      boolean newCameraImage = cameraTimestamp != lastCameraTimestamp;
+      lastCameraTimestamp = cameraTimestamp;
+
+      if (newCameraImage) {
+        // Look for QR codes in the camera image, on the worker thread. This is optional, and paused
+        // under pressure.
+        if (optionalStagesEnabled) {
+          qrCodeScanner.offer(frame, System.nanoTime());
+        }
 
-      // If frame is ready, render camera preview image to the GL surface.
+        // Keep the screen unlocked while tracking, but allow it to lock when tracking stops.
+        trackingStateHelper.updateKeepScreenOnFlag(camera.getTrackingState());
+      }
+
+      // If frame is ready, render camera preview image to the GL surface. This is needed on
+      // every frame, as the contents of the surface are undefined after it was swapped.
       backgroundRenderer.draw(frame);
 
-      // Get projection matrix.
-      float[] projmtx = new float[16];
-      camera.getProjectionMatrix(projmtx, 0, 0.1f, 100.0f);
+      // No camera image has been produced yet.
+      if (cameraTimestamp == 0) {
+        return;
+      }
 
-      // Get camera matrix and draw.
-      float[] viewmtx = new float[16];
-      camera.getViewMatrix(viewmtx, 0);
+      if (newCameraImage || frame.hasDisplayGeometryChanged()) {
+        // Get projection matrix.
+        camera.getProjectionMatrix(projmtx, 0, 0.1f, 100.0f);
 
-      // Compute lighting from average intensity of the image.
-      final float[] colorCorrectionRgba = new float[4];
-      frame.getLightEstimate().getColorCorrection(colorCorrectionRgba, 0);
+        // Get camera matrix and draw.
+        camera.getViewMatrix(viewmtx, 0);
+      }
+
+      if (newCameraImage) {
+        // Compute lighting from average intensity of the image, if it is estimated.
+        LightEstimate lightEstimate = frame.getLightEstimate();
+        if (lightEstimationEnabled && lightEstimate.getState() == LightEstimate.State.VALID) {
+          lightEstimate.getColorCorrection(colorCorrectionRgba, 0);
+        } else {
+          System.arraycopy(
+                  NEUTRAL_COLOR_CORRECTION, 0, colorCorrectionRgba, 0, colorCorrectionRgba.length);
+        }
+
+        // Update augmented images from the trackables updated in this frame.
+        boolean imageAdded = updateAugmentedImages(frame);
+
+        // Slow rendering down while no image is drawn or newly found, and the camera is still.
+        setRenderMode(
+                idleRenderPolicy.onFrame(
+                        System.nanoTime(),
+                        camera.getTrackingState() == TrackingState.TRACKING,
+                        trackedImages.countInState(TrackedImageStore.STATE_FULL_TRACKING),
+                        imageAdded,
+                        viewmtx));
+      }
 
       // Visualize augmented images.
-      drawAugmentedImages(frame, projmtx, viewmtx, colorCorrectionRgba);
+      drawAugmentedImages(projmtx, viewmtx, colorCorrectionRgba);
 
+      GlValidation.checkFrame(TAG);
     } catch (Throwable t) {
       // Avoid crashing the application due to unhandled exceptions.
       Log.e(TAG, "Exception on the OpenGL thread", t);
     }
   }
 
+  /**
+   * Forgets every detected and tracked image and returns to the "fit to scan" screen. Images are
+   * picked up again as ARCore reports them, and their labels shown again, including images still in
+   * view. Must be called from the UI Thread.
+   */
+  private void softReset() {
+    if (deviceSnackbar != null) {
+      deviceSnackbar.dismiss();
+      deviceSnackbar = null;
+    }
+    messageSnackbarHelper.hide(this);
+    fitToScanVisibility.set(View.VISIBLE);
+    qrCodeScanner.reset();
+
+    // Anchors and the image store belong to the GL thread.
+    surfaceView.queueEvent(softResetOnGlThread);
+    surfaceView.requestRender();
+  }
+
+  private final Runnable softResetOnGlThread =
+          new Runnable() {
+            @Override
+            public void run() {
+              anchorManager.releaseAll();
+              // Images missing from the store have their detection queued again when next updated.
+              trackedImages.clear();
+            }
+          };
+
+  private void setRenderMode(IdleRenderPolicy.Mode mode) {
+    if (mode == renderMode) {
+      return;
+    }
+    synchronized (renderModeLock) {
+      renderMode = mode;
+      updateRenderInterval(/*force=*/ false);
+    }
+  }
+
+  private void setGovernorRenderInterval(long intervalMs) {
+    synchronized (renderModeLock) {
+      governorRenderIntervalMs = intervalMs;
+      updateRenderInterval(/*force=*/ false);
+    }
+  }
+
+  /** Renders continuously unless the governor says otherwise, e.g. after the ticker was stopped. */
+  private void resetRenderMode() {
+    synchronized (renderModeLock) {
+      renderTickEnabled = true;
+      renderMode = IdleRenderPolicy.Mode.ACTIVE;
+      updateRenderInterval(/*force=*/ true);
+    }
+  }
+
+  /** Stops on demand renders until {@link #resetRenderMode()}, e.g. when the activity pauses. */
+  private void stopRenderTick() {
+    synchronized (renderModeLock) {
+      renderTickEnabled = false;
+      renderHandler.removeCallbacks(renderTick);
+    }
+  }
+
+  private void updateRenderInterval(boolean force) {
+    long interval = renderMode == IdleRenderPolicy.Mode.IDLE ? IDLE_RENDER_INTERVAL_MS : 0;
+    interval = Math.max(interval, governorRenderIntervalMs);
+    if (interval == renderIntervalMs && !force) {
+      return;
+    }
+    renderIntervalMs = interval;
+    renderHandler.removeCallbacks(renderTick);
+    if (interval > 0) {
+      surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+      if (renderTickEnabled) {
+        renderHandler.postDelayed(renderTick, interval);
+      }
+    } else {
+      surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+    }
+  }
+
+  /** Feeds the current thermal status and battery level to the governor. UI Thread only. */
+  private void updatePowerGovernor() {
+    int thermalStatus = PowerManager.THERMAL_STATUS_NONE;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      thermalStatus = powerManager.getCurrentThermalStatus();
+    }
+
+    // The battery broadcast is sticky, so it can be read without a receiver.
+    int batteryPercent = 100;
+    boolean charging = true;
+    Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    if (battery != null) {
+      int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+      int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+      if (level >= 0 && scale > 0) {
+        batteryPercent = level * 100 / scale;
+      }
+      charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    if (powerGovernor.update(System.nanoTime(), thermalStatus, batteryPercent, charging)) {
+      Log.i(TAG, "Pressure level " + powerGovernor.getLevel() + " (thermal status " + thermalStatus
+              + ", battery " + batteryPercent + "%" + (charging ? ", charging" : "") + ")");
+      applyPowerGovernorLevel();
+    }
+  }
+
+  /** Applies the work shedding of the current governor level. UI Thread only. */
+  private void applyPowerGovernorLevel() {
+    setGovernorRenderInterval(powerGovernor.getRenderIntervalMs());
+    optionalStagesEnabled = powerGovernor.isOptionalStagesEnabled();
+    applySessionProfile();
+    setCameraResolutionReduced(powerGovernor.isCameraResolutionReduced());
+
+    // Restart a running scan with the new scan mode.
+    if (mScanning && mLEScanner != null) {
+      restartLeScan();
+    }
+  }
+
+  /**
+   * Switches the camera to its lowest resolution, or back to the default configuration. The camera
+   * configuration can only be changed while the session is paused, so this briefly pauses it.
+   */
+  private void setCameraResolutionReduced(boolean reduced) {
+    if (session == null || defaultCameraConfig == null || reduced == cameraResolutionReduced) {
+      return;
+    }
+    CameraConfig cameraConfig =
+            reduced
+                    ? CameraConfigSelector.selectLowestResolution(session, defaultCameraConfig)
+                    : defaultCameraConfig;
+    if (cameraConfig == null) {
+      return;
+    }
+
+    surfaceView.onPause();
+    session.pause();
+    session.setCameraConfig(cameraConfig);
+    try {
+      session.resume();
+    } catch (CameraNotAvailableException e) {
+      messageSnackbarHelper.showError(this, "Camera not available. Try restarting the app.");
+      session = null;
+      // Nothing is left to render or govern.
+      stopRenderTick();
+      renderHandler.removeCallbacks(governorTick);
+      return;
+    }
+    cameraResolutionReduced = reduced;
+    surfaceView.onResume();
+  }
+
   private void configureSession() {
     Config config = new Config(session);
     config.setFocusMode(Config.FocusMode.AUTO);
+    config.setUpdateMode(updateModeSettings.getUpdateMode());
+    sessionProfile.applyTo(config, session);
     if (!setupAugmentedImageDatabase(config)) {
       messageSnackbarHelper.showError(this, "Could not setup augmented image database");
     }
+    CameraConfig cameraConfig = cameraConfigSelector.select(session);
+    if (cameraConfig != null) {
+      session.setCameraConfig(cameraConfig);
+    }
     session.configure(config);
+    sessionConfig = config;
+    defaultCameraConfig = session.getCameraConfig();
   }
 
-  private void drawAugmentedImages(Frame frame, float[] projmtx, float[] viewmtx, float[] colorCorrectionRgba) {
+  /** Handles a click on an item of the settings menu. */
+  private boolean settingsMenuClick(MenuItem item) {
+    int itemId = item.getItemId();
+    if (itemId == R.id.latest_camera_image) {
+      setLatestCameraImageEnabled(!item.isChecked());
+      return true;
+    }
+    for (SessionProfile profile : SessionProfile.values()) {
+      if (itemId == getSessionProfileMenuItemId(profile)) {
+        preferredSessionProfile = profile;
+        applySessionProfile();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int getSessionProfileMenuItemId(SessionProfile profile) {
+    switch (profile) {
+      case STANDARD:
+        return R.id.session_profile_standard;
+      case FULL:
+        return R.id.session_profile_full;
+      default:
+        return R.id.session_profile_labels_only;
+    }
+  }
+
+  /** Uses the preferred session profile, or only what labels need while optional stages pause. */
+  private void applySessionProfile() {
+    setSessionProfile(optionalStagesEnabled ? preferredSessionProfile : SessionProfile.LABELS_ONLY);
+  }
+
+  /**
+   * Switches the ARCore subsystems that run besides image tracking. Takes effect on the running
+   * session, without recreating it. Must be called from the UI Thread.
+   */
+  private void setSessionProfile(SessionProfile profile) {
+    if (profile == sessionProfile) {
+      return;
+    }
+    sessionProfile = profile;
+    lightEstimationEnabled = profile.isLightEstimationEnabled();
+    if (session != null && sessionConfig != null) {
+      profile.applyTo(sessionConfig, session);
+      session.configure(sessionConfig);
+    }
+  }
+
+  /**
+   * Switches the session between blocking updates and updates with the latest camera image, and
+   * stores the choice. Takes effect on the running session. Must be called from the UI Thread.
+   */
+  private void setLatestCameraImageEnabled(boolean enabled) {
+    if (enabled == updateModeSettings.isLatestCameraImageEnabled()) {
+      return;
+    }
+    updateModeSettings.setLatestCameraImageEnabled(enabled);
+    if (session != null && sessionConfig != null) {
+      sessionConfig.setUpdateMode(updateModeSettings.getUpdateMode());
+      session.configure(sessionConfig);
+    }
+  }
+
+  /**
+   * Updates trackedImages from the trackables updated in the frame. Returns whether an image was
+   * added to it, whether or not it is drawn.
+   */
+  private boolean updateAugmentedImages(Frame frame) {
     Collection<AugmentedImage> updatedAugmentedImages =
             frame.getUpdatedTrackables(AugmentedImage.class);
+    long nowNanos = System.nanoTime();
+    boolean imageAdded = false;
 
-    // Iterate to update augmentedImageMap, remove elements we cannot draw.
+    // Iterate to update trackedImages, remove elements we cannot draw.
     for (AugmentedImage augmentedImage : updatedAugmentedImages) {
+      int index = augmentedImage.getIndex();
+      boolean known = trackedImages.contains(index);
+      trackingMetrics.onImageUpdated(
+              index,
+              augmentedImage.getTrackingState(),
+              augmentedImage.getTrackingMethod(),
+              nowNanos);
+
       switch (augmentedImage.getTrackingState()) {
         case PAUSED:
           // When an image is in PAUSED state, but the camera is not PAUSED, it has been detected,
@@ -424,57 +894,81 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
           // String text = String.format("Detected Image %d \nData: %s", augmentedImage.getIndex(), augmentedImage.getName());
           // messageSnackbarHelper.showMessage(this, text);
 
-          // Process Data for QR Device
-          processQRData(augmentedImage);
+          // Process Data for QR Device on the worker, only when newly detected
+          if (!trackedImages.contains(index)
+                  || trackedImages.getState(index) != TrackedImageStore.STATE_DETECTED) {
+            detectionWorker.onImageDetected(augmentedImage, nowNanos);
+          }
+
+          trackedImages.put(
+                  index, augmentedImage, anchorManager.getAnchor(index), TrackedImageStore.STATE_DETECTED);
 
           break;
 
         case TRACKING:
-          // Have to switch to UI Thread to update View.
-          this.runOnUiThread(
-                  new Runnable() {
-                    @Override
-                    public void run() {
-                      fitToScanView.setVisibility(View.GONE);
-                    }
-                  });
+          // Applied on the UI Thread in the next frame, only if it changed.
+          fitToScanVisibility.set(View.GONE);
 
-          // Create a new anchor for newly found images.
-          if (!augmentedImageMap.containsKey(augmentedImage.getIndex())) {
-            Anchor centerPoseAnchor = augmentedImage.createAnchor(augmentedImage.getCenterPose());
-            augmentedImageMap.put(augmentedImage.getIndex(), Pair.create(augmentedImage, centerPoseAnchor));
+          // Images still in view after a soft reset are not detected again, but stay TRACKING:
+          // show their label again.
+          if (!known) {
+            detectionWorker.onImageDetected(augmentedImage, nowNanos);
           }
+
+          // Create a new anchor for newly found images, or reuse the existing one.
+          Anchor centerPoseAnchor = anchorManager.acquire(augmentedImage, nowNanos);
+          int state =
+                  augmentedImage.getTrackingMethod() == AugmentedImage.TrackingMethod.FULL_TRACKING
+                          ? TrackedImageStore.STATE_FULL_TRACKING
+                          : TrackedImageStore.STATE_LAST_KNOWN_POSE;
+          trackedImages.put(index, augmentedImage, centerPoseAnchor, state);
           break;
 
         case STOPPED:
-          augmentedImageMap.remove(augmentedImage.getIndex());
+          // The anchor is kept for a while, in case the image reappears.
+          trackedImages.remove(index);
+          anchorManager.onImageStopped(index);
           break;
 
         default:
           break;
       }
+      imageAdded |= !known && trackedImages.contains(index);
     }
+    return imageAdded;
+  }
 
-    // Draw all images in augmentedImageMap
-    for (Pair<AugmentedImage, Anchor> pair : augmentedImageMap.values()) {
-      AugmentedImage augmentedImage = pair.first;
-      Anchor centerAnchor = augmentedImageMap.get(augmentedImage.getIndex()).second;
-
-      switch (augmentedImage.getTrackingState()) {
-        case TRACKING:
-          // Not tracking a static object necessarily, only render when fully tracking object.
-          if (augmentedImage.getTrackingMethod() == AugmentedImage.TrackingMethod.FULL_TRACKING) {
-            augmentedImageRenderer.draw(
-                    viewmtx, projmtx, augmentedImage, centerAnchor, colorCorrectionRgba);
-          } else {
-            // Do nothing
-          }
-          break;
-
-        default:
-          break;
+  private void drawAugmentedImages(float[] projmtx, float[] viewmtx, float[] colorCorrectionRgba) {
+    // Draw the images in trackedImages that are in view, batched into a few draw calls.
+    augmentedImageRenderer.beginFrame(viewmtx, projmtx, colorCorrectionRgba);
+    for (int i = 0; i < trackedImages.size(); ++i) {
+      int index = trackedImages.indexAt(i);
+      Anchor centerAnchor = trackedImages.getAnchor(index);
+
+      // Not tracking a static object necessarily, only render when fully tracking object. Images
+      // whose anchor was evicted get a new one the next time they are tracked.
+      if (trackedImages.getState(index) == TrackedImageStore.STATE_FULL_TRACKING
+              && centerAnchor != null) {
+        augmentedImageRenderer.draw(trackedImages.getImage(index), centerAnchor);
       }
     }
+    augmentedImageRenderer.endFrame();
+
+    int drawCallCount = augmentedImageRenderer.getDrawCallCount();
+    int drawnImageCount = augmentedImageRenderer.getImageCount();
+    int culledImageCount = augmentedImageRenderer.getCulledImageCount();
+    if (drawCallCount != lastDrawCallCount
+            || drawnImageCount != lastDrawnImageCount
+            || culledImageCount != lastCulledImageCount) {
+      lastDrawCallCount = drawCallCount;
+      lastDrawnImageCount = drawnImageCount;
+      lastCulledImageCount = culledImageCount;
+      Log.d(TAG, "Drawing " + drawnImageCount + " images ("
+              + augmentedImageRenderer.getSimpleImageCount() + " simplified, "
+              + culledImageCount + " culled) in " + drawCallCount + " draw calls, "
+              + GlState.getIssuedCount() + " GL state calls issued, "
+              + GlState.getElidedCount() + " elided");
+    }
   }
 
   private boolean setupAugmentedImageDatabase(Config config) {
@@ -489,159 +983,26 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
     }
 
     config.setAugmentedImageDatabase(augmentedImageDatabase);
+    trackingMetrics.ensureCapacity(augmentedImageDatabase.getNumImages());
+    anchorManager.ensureCapacity(augmentedImageDatabase.getNumImages());
+    trackedImages.ensureCapacity(augmentedImageDatabase.getNumImages());
     return true;
   }
 
-  private void processQRData(AugmentedImage input) {
-    // Create Data Structure to hold processed device rawdata.
-    // Fields: Type Brand Model
-    String[] qrData = new String[3];
-
-    // Data to be parsed
-    // Ex. '[TYPE][BRAND][MODEL][DATA].png'
-    String rawdata = input.getName();
-
-    // Remove first'[' and last '].png'
-    rawdata = rawdata.substring(1, rawdata.length() - 5);
-
-    // Seperate by '][' delimiter to access individual fields
-    String[] proc_data = rawdata.split("]\\[");
-
-    String packageName = getPackageName();
-
-    // Process type field, do string value lookup
-    int typeID = getResources().getIdentifier(proc_data[0].toString(), "string", packageName);
-    String typeValue = this.getString(typeID);
-    // Save type to result data
-    qrData[0] = typeValue;
-
-    // Process brand field, do string value lookup
-    int brandID = getResources().getIdentifier(proc_data[1].toString(), "string", packageName);
-    String brandValue = this.getString(brandID);
-    // Save brand to result data
-    qrData[1] = brandValue;
-
-    // Save model to result data
-    qrData[2] = proc_data[2].toString();
-
-    // Process data type field(s), do string value lookup
-
-    // First split all rawdata values in original rawdata
-    String[] data_split = proc_data[3].split(",");
-
-    // Lookup all individual data type values, store in array
-    String[] data_parsed = new String[data_split.length];
-    for (int i = 0; i < data_split.length; i++) {
-      int dataID = getResources().getIdentifier(data_split[i], "string", packageName);
-      data_parsed[i] = this.getString(dataID);
-    }
-
-    // Debug
-    // String outputText = "Type: " + getResources().getString(typeID) +
-    //          "\nBrand: " + getResources().getString(brandID) +
-    //          "\nModel: " + proc_data[2].toString() +
-    //          "\nData: " + getResources().getString(dataID);
-
-    // Build Output String
-    String foundDevice = getResources().getString(R.string.device_found) + " \n" + getResources().getString(brandID) + " " + proc_data[2].toString();
-
-    // Show a graphical indication of this device being found and pass device data
-    buildSnackbarDisplay(foundDevice, qrData, data_parsed);
-  }
-
-  private void processBTLEData(BluetoothDevice device, byte[] scanRecord) {
-    String[] device_types = { "Unknown", "Camera", "Doorbell", "Light", "Speaker", "Switch", "Thermostat" };
-    String[] device_brands = { "Unknown", "Arlo", "Nest", "Ring", "Hue", "Google" };
-    String[] device_models = { "Unknown", "Arlo", "Wired", "Video", "A19", "GU10", "Lightstrip", "Home Max", "Mini", "Dimmer", "Learning", "Thermostat" };
-    String[] device_data_types = { "None", "Personally Identifiable Data", "Audio", "Video", "Presence", "Information", "Location" };
-
-    // Create Data Structure to hold processed device data.
-    // Fields: Type Brand Model
-    String[] btleData = new String[3];
-    String[] deviceDataTypes = null;
-
-    // Build Output String
-    String foundDevice = getResources().getString(R.string.device_found_btle) + " \n" + device.getName() + " (" + device.getAddress() + ")";
-
-    // Parse the payload of the advertisement packet
-    // as a list of AD structures.
-    // SRC: https://stackoverflow.com/questions/32836728/how-to-identify-eddystone-url-and-uid
-    List<ADStructure> structures = ADPayloadParser.getInstance().parse(scanRecord);
-
-    // For each AD structure contained in the advertisement packet.
-    for (ADStructure structure : structures) {
-      // If the AD structure represents Eddystone UID.
-      if (structure instanceof EddystoneUID) {
-        // Eddystone UID
-        EddystoneUID es = (EddystoneUID) structure;
-
-        // Get string data of the beacon
-        String namespaceIdStr = es.getNamespaceIdAsString();  // 0x626c7565636861726d31
-        String instanceIdStr = es.getInstanceIdAsString();    // 0x000000000001
-
-        // Cannot use namespaceID for anything useful, must be 10 byte UUID namespace
-        // Can use InstanceID to hold usable data, though
-
-        // Process InstanceID for device information
-        //    0x 00 0 00 0000000
-        // Field 1  2 3  4
-        //
-        // Field 1 - Device Type (Int index)
-        // Field 2 - Brand       (Int Index)
-        // Field 3 - Model       (Int Index)
-        // Field 4 - Data Types  (Flags)
-
-        // Get Type from InstanceID
-        String tIndex = instanceIdStr.substring(0, instanceIdStr.length() - 10);
-        btleData[0] = device_types[Integer.parseInt(tIndex)];
-
-        // Get Brand from InstanceID
-        String bIndex = instanceIdStr.substring(2, instanceIdStr.length() - 9);
-        btleData[1] = device_brands[Integer.parseInt(bIndex)];
-
-        // Get Model from InstanceID
-        String mIndex = instanceIdStr.substring(3, instanceIdStr.length() - 7);
-        btleData[2] = device_models[Integer.parseInt(mIndex)];
-
-        // Get Data Types flags from InstanceID
-        String dFlags = instanceIdStr.substring(5);
-
-        // Get amount of permissions (1's) in flags
-        int type_amount = instanceIdStr.length() - instanceIdStr.replaceAll("1", "").length();
-
-        // Then set size of return data type string array based on that amount
-        deviceDataTypes = new String[type_amount];
-
-        // Check all flags
-        int count = 0;
-        for (int i = 0; i < dFlags.length(); i++) {
-          // Flag (char) set to true (set to 1)
-          if (dFlags.charAt(i) == '1') {
-            // Add the data type from the reference list to the current device list
-            deviceDataTypes[count] = device_data_types[i];
-
-            // Increment counter / index of return string array
-            count++;
-          }
-        }
-      }
-      // If the AD structure represents Eddystone URL.
-      else if (structure instanceof EddystoneURL)
-      {
-        // Eddystone URL (backup plan)
-        EddystoneURL es = (EddystoneURL)structure;
-
-        String namespaceURLStr = es.getURL().toString();
-      }
+  private void publishDeviceLabel(DeviceLabel label) {
+    // Called on the detection worker thread, the only producer of the channel.
+    DeviceLabelEvent event = deviceLabels.claim();
+    if (event == null) {
+      Log.w(TAG, "Dropping device label, UI is behind");
+      return;
     }
-
-    // Show a graphical indication of this device being found and pass device data
-    buildSnackbarDisplay(foundDevice, btleData, deviceDataTypes);
+    event.label = label;
+    deviceLabels.publish();
   }
 
   private void buildSnackbarDisplay(String displayString, String[] deviceData, String[] deviceDataTypes) {
     // Show a graphical indication of passed in data
-    Snackbar snackbar = Snackbar
+    deviceSnackbar = Snackbar
             .make(fitToScanView, displayString, Snackbar.LENGTH_INDEFINITE)
             .setAction("More Info", new View.OnClickListener() {
               @Override
@@ -661,7 +1022,7 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
               }
             });
 
-    snackbar.show();
+    deviceSnackbar.show();
   }
 
   private void buildDeviceInfoDisplay (String[] deviceData, String[] deviceDataTypes) {
@@ -710,47 +1071,61 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
 
   @SuppressLint("MissingPermission")
   private void scanLeDevice(final boolean enable) {
+    if (mLEScanner == null) {
+      // Bluetooth is turned off.
+      return;
+    }
     if (enable) {
       // Stops scanning after a pre-defined scan period.
       mHandler.postDelayed(new Runnable() {
         public void run() {
           mScanning = false;
-          mBluetoothAdapter.stopLeScan(mLeScanCallback);
+          mLEScanner.stopScan(mScanCallback);
         }
       }, SCAN_PERIOD);
       mScanning = true;
-      mBluetoothAdapter.startLeScan(mLeScanCallback);
+      mLEScanner.startScan(filters, buildScanSettings(), mScanCallback);
     } else {
       mScanning = false;
-      mBluetoothAdapter.stopLeScan(mLeScanCallback);
+      mLEScanner.stopScan(mScanCallback);
     }
   }
 
-  private BluetoothAdapter.LeScanCallback mLeScanCallback = new BluetoothAdapter.LeScanCallback() {
-    private boolean found = false;
+  @SuppressLint("MissingPermission")
+  private void restartLeScan() {
+    mLEScanner.stopScan(mScanCallback);
+    mLEScanner.startScan(filters, buildScanSettings(), mScanCallback);
+  }
+
+  private ScanSettings buildScanSettings() {
+    // Scan less aggressively under thermal or battery pressure.
+    settings = new ScanSettings.Builder()
+            .setScanMode(powerGovernor.getBleScanMode())
+            .setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES)
+            .build();
+    return settings;
+  }
 
+  private final ScanCallback mScanCallback = new ScanCallback() {
+    @SuppressLint("MissingPermission")
     @Override
-    public void onLeScan(final BluetoothDevice device, int rssi, byte[] scanRecord) {
-      runOnUiThread(new Runnable() {
-        @Override
-        public void run() {
-          // BT LE Device Found
-
-          // Build and print Output String (Debug)
-          //String foundDevice = R.string.device_found_btle + device.getName() + " (" + device.getAddress() + ")";
-          //Toast.makeText(AugmentedImageActivity.this, foundDevice, Toast.LENGTH_LONG).show();
+    public void onScanResult(int callbackType, ScanResult result) {
+      // BT LE Device Found
+      BluetoothDevice device = result.getDevice();
+      ScanRecord scanRecord = result.getScanRecord();
 
-          // Determine if this device is one we are looking for.
-          // Check that name of the device is not NULL, not same as last scanned device, and contains 'IDENT' in name
-          if ( (device.getName() != null) && (device.getName().toUpperCase(Locale.ROOT).contains("IDENT")) ) {
+      // Build and print Output String (Debug)
+      //String foundDevice = R.string.device_found_btle + device.getName() + " (" + device.getAddress() + ")";
+      //Toast.makeText(AugmentedImageActivity.this, foundDevice, Toast.LENGTH_LONG).show();
 
-              // Process Data for BTLE Device
-              processBTLEData(device, scanRecord);
+      // Determine if this device is one we are looking for.
+      // Check that name of the device is not NULL, not same as last scanned device, and contains 'IDENT' in name
+      if ( (scanRecord != null) && (device.getName() != null) && (device.getName().toUpperCase(Locale.ROOT).contains("IDENT")) ) {
 
-          }
+          // Process Data for BTLE Device, on the detection worker
+          detectionWorker.onBleAdvertisement(device.getName(), device.getAddress(), scanRecord.getBytes());
 
-        }
-      });
+      }
 
     }
 
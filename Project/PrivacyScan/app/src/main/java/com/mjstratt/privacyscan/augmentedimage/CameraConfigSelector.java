@@ -0,0 +1,183 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+import android.util.Size;
+import com.google.ar.core.CameraConfig;
+import com.google.ar.core.CameraConfigFilter;
+import com.google.ar.core.Session;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Picks the camera configuration best suited to image recognition.
+ *
+ * <p>Each supported configuration is scored against a target frame rate and CPU image size, and
+ * against whether the depth sensor should be used. The CPU image is what image tracking and QR
+ * decoding read, so a size just above the target keeps recognition reliable without spending time
+ * on pixels it does not need. The chosen configuration is stored per device model, and later
+ * launches reuse it without scoring again.
+ */
+public class CameraConfigSelector {
+  private static final String TAG = CameraConfigSelector.class.getSimpleName();
+
+  public static final String SHARED_PREFERENCES_ID = "SHARED_PREFERENCES_CAMERA_CONFIG";
+
+  // Extra penalty for CPU images smaller than the target, which hurt recognition.
+  private static final float BELOW_TARGET_SIZE_PENALTY = 1.0f;
+
+  private final SharedPreferences sharedPreferences;
+  private final int targetFps;
+  private final int targetImageWidth;
+  private final int targetImageHeight;
+  private final boolean useDepthSensor;
+
+  /**
+   * @param context Context used to store the chosen configuration.
+   * @param targetFps The preferred camera frame rate, 30 or 60.
+   * @param targetImageWidth The preferred width of the CPU image.
+   * @param targetImageHeight The preferred height of the CPU image.
+   * @param useDepthSensor Whether configurations using a depth sensor are wanted.
+   */
+  public CameraConfigSelector(
+      Context context,
+      int targetFps,
+      int targetImageWidth,
+      int targetImageHeight,
+      boolean useDepthSensor) {
+    this.sharedPreferences =
+        context.getSharedPreferences(SHARED_PREFERENCES_ID, Context.MODE_PRIVATE);
+    this.targetFps = targetFps;
+    this.targetImageWidth = targetImageWidth;
+    this.targetImageHeight = targetImageHeight;
+    this.useDepthSensor = useDepthSensor;
+  }
+
+  /**
+   * Returns the configuration to use, the stored one if it is still supported, or else the best
+   * scoring one, which is then stored. Returns {@code null} if no configuration is supported.
+   */
+  public CameraConfig select(Session session) {
+    CameraConfigFilter filter =
+        new CameraConfigFilter(session)
+            .setFacingDirection(CameraConfig.FacingDirection.BACK)
+            .setTargetFps(
+                EnumSet.of(
+                    CameraConfigFilter.TargetFps.TARGET_FPS_30,
+                    CameraConfigFilter.TargetFps.TARGET_FPS_60))
+            .setDepthSensorUsage(
+                useDepthSensor
+                    ? EnumSet.allOf(CameraConfig.DepthSensorUsage.class)
+                    : EnumSet.of(CameraConfig.DepthSensorUsage.DO_NOT_USE));
+    List<CameraConfig> cameraConfigs = session.getSupportedCameraConfigs(filter);
+    if (cameraConfigs == null || cameraConfigs.isEmpty()) {
+      return null;
+    }
+
+    String storedKey = sharedPreferences.getString(Build.MODEL, null);
+    if (storedKey != null) {
+      for (CameraConfig cameraConfig : cameraConfigs) {
+        if (storedKey.equals(getKey(cameraConfig))) {
+          return cameraConfig;
+        }
+      }
+    }
+
+    CameraConfig best = null;
+    float bestScore = 0;
+    for (CameraConfig cameraConfig : cameraConfigs) {
+      float score = score(cameraConfig);
+      if (best == null || score > bestScore) {
+        best = cameraConfig;
+        bestScore = score;
+      }
+    }
+
+    String key = getKey(best);
+    Log.i(TAG, "Selected camera config " + key + " for " + Build.MODEL);
+    sharedPreferences.edit().putString(Build.MODEL, key).apply();
+    return best;
+  }
+
+  /**
+   * Returns the supported configuration with the smallest CPU image that uses the same camera
+   * direction, depth sensor usage and frame rate as the given one, or {@code null} if there is
+   * none. Used to shed work under pressure without changing what the camera sees.
+   */
+  public static CameraConfig selectLowestResolution(Session session, CameraConfig like) {
+    CameraConfigFilter.TargetFps targetFps =
+        like.getFpsRange().getUpper() >= 60
+            ? CameraConfigFilter.TargetFps.TARGET_FPS_60
+            : CameraConfigFilter.TargetFps.TARGET_FPS_30;
+    CameraConfigFilter filter =
+        new CameraConfigFilter(session)
+            .setFacingDirection(like.getFacingDirection())
+            .setTargetFps(EnumSet.of(targetFps))
+            .setDepthSensorUsage(EnumSet.of(like.getDepthSensorUsage()));
+    List<CameraConfig> cameraConfigs = session.getSupportedCameraConfigs(filter);
+    if (cameraConfigs == null) {
+      return null;
+    }
+
+    CameraConfig lowest = null;
+    for (CameraConfig cameraConfig : cameraConfigs) {
+      if (lowest == null || getPixelCount(cameraConfig) < getPixelCount(lowest)) {
+        lowest = cameraConfig;
+      }
+    }
+    return lowest;
+  }
+
+  private static long getPixelCount(CameraConfig cameraConfig) {
+    return (long) cameraConfig.getImageSize().getWidth() * cameraConfig.getImageSize().getHeight();
+  }
+
+  /** Returns the score of a configuration, higher is better and 0 is a perfect match. */
+  private float score(CameraConfig cameraConfig) {
+    float score = 0;
+
+    int fps = cameraConfig.getFpsRange().getUpper();
+    score -= Math.abs(fps - targetFps) / (float) targetFps;
+
+    Size imageSize = cameraConfig.getImageSize();
+    float pixels = (float) imageSize.getWidth() * imageSize.getHeight();
+    float targetPixels = (float) targetImageWidth * targetImageHeight;
+    score -= Math.abs(pixels - targetPixels) / targetPixels;
+    if (imageSize.getWidth() < targetImageWidth || imageSize.getHeight() < targetImageHeight) {
+      score -= BELOW_TARGET_SIZE_PENALTY;
+    }
+
+    boolean usesDepthSensor =
+        cameraConfig.getDepthSensorUsage() == CameraConfig.DepthSensorUsage.REQUIRE_AND_USE;
+    if (usesDepthSensor != useDepthSensor) {
+      score -= 1.0f;
+    }
+    return score;
+  }
+
+  /** Returns a key identifying a configuration across launches. */
+  private static String getKey(CameraConfig cameraConfig) {
+    return cameraConfig.getCameraId()
+        + "/" + cameraConfig.getImageSize()
+        + "/" + cameraConfig.getTextureSize()
+        + "/" + cameraConfig.getFpsRange()
+        + "/" + cameraConfig.getDepthSensorUsage();
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+import com.google.ar.core.AugmentedImage;
+import com.google.ar.core.examples.java.common.helpers.SpscRing;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Resolves the {@link DeviceLabel} of detected augmented images, decoded QR codes and Bluetooth
+ * advertisements on a worker thread.
+ *
+ * <p>Each source thread writes its events into its own {@link SpscRing} of preallocated events, so
+ * recording an event costs it constant time and no allocation. The worker drains all rings in one
+ * pass whenever it is woken up. Labels of augmented images are resolved once and cached by image
+ * index.
+ */
+public class DetectionWorker {
+  private static final String TAG = DetectionWorker.class.getSimpleName();
+
+  // Number of events each ring holds. Events recorded while a ring is full are dropped.
+  private static final int RING_CAPACITY = 16;
+
+  // Legacy advertisements are at most 31 bytes of advertising data and 31 of scan response.
+  private static final int MAX_SCAN_RECORD_BYTES = 62;
+
+  /** Receives the label of each detection. Called on the worker thread. */
+  public interface Listener {
+    void onDeviceDetected(DeviceLabel label);
+  }
+
+  private static final class ImageDetection {
+    int index;
+    String name;
+    long timestampNanos;
+  }
+
+  private static final class QrDetection {
+    String payload;
+  }
+
+  private static final class BleSighting {
+    String name;
+    String address;
+    final byte[] scanRecord = new byte[MAX_SCAN_RECORD_BYTES];
+  }
+
+  private final Context context;
+  private final Listener listener;
+  private final Thread thread = new Thread(this::run, TAG);
+
+  // GL thread to worker.
+  private final SpscRing<ImageDetection> imageDetections =
+      new SpscRing<>(RING_CAPACITY, ImageDetection::new);
+  // QR worker to worker.
+  private final SpscRing<QrDetection> qrDetections = new SpscRing<>(RING_CAPACITY, QrDetection::new);
+  // Bluetooth scan callback thread to worker.
+  private final SpscRing<BleSighting> bleSightings = new SpscRing<>(RING_CAPACITY, BleSighting::new);
+
+  private final SpscRing.Consumer<ImageDetection> imageDetectionConsumer = this::onImageDetection;
+  private final SpscRing.Consumer<QrDetection> qrDetectionConsumer = this::onQrDetection;
+  private final SpscRing.Consumer<BleSighting> bleSightingConsumer = this::onBleSighting;
+
+  // GL thread only. Image names are only read from ARCore on the first detection of each image.
+  private String[] names = new String[0];
+
+  // Worker thread only.
+  private DeviceLabel[] labels = new DeviceLabel[0];
+
+  public DetectionWorker(Context context, Listener listener) {
+    this.context = context.getApplicationContext();
+    this.listener = listener;
+    thread.start();
+  }
+
+  /**
+   * Records the detection of an image. Must be called from the GL thread.
+   *
+   * @param augmentedImage The detected image.
+   * @param timestampNanos The time of the detection.
+   */
+  public void onImageDetected(AugmentedImage augmentedImage, long timestampNanos) {
+    int index = augmentedImage.getIndex();
+    if (index < 0) {
+      return;
+    }
+    if (index >= names.length) {
+      names = Arrays.copyOf(names, index + 1);
+    }
+    if (names[index] == null) {
+      names[index] = augmentedImage.getName();
+    }
+
+    ImageDetection detection = imageDetections.claim();
+    if (detection == null) {
+      Log.w(TAG, "Dropping detection of image " + index + ", worker is behind");
+      return;
+    }
+    detection.index = index;
+    detection.name = names[index];
+    detection.timestampNanos = timestampNanos;
+    imageDetections.publish();
+    LockSupport.unpark(thread);
+  }
+
+  /** Records a decoded QR code. Must be called from the QR worker thread. */
+  public void onQrCodeDecoded(String payload) {
+    QrDetection detection = qrDetections.claim();
+    if (detection == null) {
+      Log.w(TAG, "Dropping QR code, worker is behind");
+      return;
+    }
+    detection.payload = payload;
+    qrDetections.publish();
+    LockSupport.unpark(thread);
+  }
+
+  /**
+   * Records a Bluetooth advertisement. Must be called from the scan callback thread. The scan
+   * record is copied, so the caller may reuse it.
+   */
+  public void onBleAdvertisement(String name, String address, byte[] scanRecord) {
+    BleSighting sighting = bleSightings.claim();
+    if (sighting == null) {
+      return;
+    }
+    int length = Math.min(scanRecord.length, MAX_SCAN_RECORD_BYTES);
+    sighting.name = name;
+    sighting.address = address;
+    System.arraycopy(scanRecord, 0, sighting.scanRecord, 0, length);
+    Arrays.fill(sighting.scanRecord, length, MAX_SCAN_RECORD_BYTES, (byte) 0);
+    bleSightings.publish();
+    LockSupport.unpark(thread);
+  }
+
+  /** Stops the worker. The worker cannot be used afterwards. */
+  public void close() {
+    thread.interrupt();
+  }
+
+  private void run() {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+    while (!Thread.interrupted()) {
+      int drained =
+          imageDetections.drain(imageDetectionConsumer)
+              + qrDetections.drain(qrDetectionConsumer)
+              + bleSightings.drain(bleSightingConsumer);
+      if (drained == 0) {
+        // Producers unpark the thread after publishing, so no event is missed while parked.
+        LockSupport.park(this);
+      }
+    }
+  }
+
+  private void onImageDetection(ImageDetection detection) {
+    int index = detection.index;
+    if (index >= labels.length) {
+      labels = Arrays.copyOf(labels, index + 1);
+    }
+    if (labels[index] == null) {
+      labels[index] = DeviceLabel.resolve(context, detection.name);
+    }
+    publish(labels[index]);
+    if (Log.isLoggable(TAG, Log.DEBUG)) {
+      Log.d(TAG, "Resolved image " + index + " in "
+          + (System.nanoTime() - detection.timestampNanos) / 1000000 + " ms");
+    }
+  }
+
+  private void onQrDetection(QrDetection detection) {
+    String payload = detection.payload;
+    detection.payload = null;
+    publish(DeviceLabel.resolve(context, payload));
+  }
+
+  private void onBleSighting(BleSighting sighting) {
+    try {
+      publish(
+          DeviceLabel.resolveAdvertisement(
+              context, sighting.name, sighting.address, sighting.scanRecord));
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Ignoring malformed advertisement of " + sighting.address, e);
+    }
+  }
+
+  private void publish(DeviceLabel label) {
+    if (label != null) {
+      listener.onDeviceDetected(label);
+    }
+  }
+}
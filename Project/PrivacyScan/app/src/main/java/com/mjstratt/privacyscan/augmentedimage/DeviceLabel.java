@@ -0,0 +1,217 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+import com.neovisionaries.bluetooth.ble.advertising.ADPayloadParser;
+import com.neovisionaries.bluetooth.ble.advertising.ADStructure;
+import com.neovisionaries.bluetooth.ble.advertising.EddystoneUID;
+import com.neovisionaries.bluetooth.ble.advertising.EddystoneURL;
+import java.util.List;
+
+/**
+ * Display data of a device label, resolved from the data encoded in a label image name, QR code or
+ * Bluetooth advertisement.
+ *
+ * <p>Resolving looks up string resources by name, which is slow, so it should not be done on the
+ * GL thread.
+ */
+public final class DeviceLabel {
+  private static final String TAG = DeviceLabel.class.getSimpleName();
+
+  /** Text announcing the device. */
+  public final String foundDevice;
+  /** Fields: Type Brand Model. */
+  public final String[] deviceData;
+  /** Names of the types of data the device collects. */
+  public final String[] dataTypes;
+
+  public DeviceLabel(String foundDevice, String[] deviceData, String[] dataTypes) {
+    this.foundDevice = foundDevice;
+    this.deviceData = deviceData;
+    this.dataTypes = dataTypes;
+  }
+
+  /**
+   * Resolves the label data.
+   *
+   * @param context Context used to look up string resources.
+   * @param rawdata Ex. '[TYPE][BRAND][MODEL][DATA].png' for augmented image names, or
+   *     '[TYPE][BRAND][MODEL][DATA]' for decoded QR codes.
+   * @return The label, or {@code null} if the data is not a device label.
+   */
+  public static DeviceLabel resolve(Context context, String rawdata) {
+    // Create Data Structure to hold processed device rawdata.
+    // Fields: Type Brand Model
+    String[] qrData = new String[3];
+
+    // Remove the '.png' extension of augmented image names
+    if (rawdata.endsWith(".png")) {
+      rawdata = rawdata.substring(0, rawdata.length() - 4);
+    }
+
+    // Ignore QR codes that are not device labels
+    if (!rawdata.startsWith("[") || !rawdata.endsWith("]")) {
+      Log.w(TAG, "Ignoring unrecognized QR data: " + rawdata);
+      return null;
+    }
+
+    // Remove first '[' and last ']'
+    rawdata = rawdata.substring(1, rawdata.length() - 1);
+
+    // Seperate by '][' delimiter to access individual fields
+    String[] proc_data = rawdata.split("]\\[");
+    if (proc_data.length < 4) {
+      Log.w(TAG, "Ignoring incomplete QR data: " + rawdata);
+      return null;
+    }
+
+    // Process type field, do string value lookup
+    qrData[0] = lookupLabelString(context, proc_data[0]);
+
+    // Process brand field, do string value lookup
+    String brandValue = lookupLabelString(context, proc_data[1]);
+    qrData[1] = brandValue;
+
+    // Save model to result data
+    qrData[2] = proc_data[2];
+
+    // Process data type field(s), do string value lookup
+
+    // First split all rawdata values in original rawdata
+    String[] data_split = proc_data[3].split(",");
+
+    // Lookup all individual data type values, store in array
+    String[] data_parsed = new String[data_split.length];
+    for (int i = 0; i < data_split.length; i++) {
+      data_parsed[i] = lookupLabelString(context, data_split[i]);
+    }
+
+    // Build Output String
+    String foundDevice =
+        context.getResources().getString(R.string.device_found)
+            + " \n" + brandValue + " " + proc_data[2];
+
+    return new DeviceLabel(foundDevice, qrData, data_parsed);
+  }
+
+  /**
+   * Resolves the label data of an Eddystone advertisement of a device.
+   *
+   * @param context Context used to look up string resources.
+   * @param name The name of the advertising device.
+   * @param address The hardware address of the advertising device.
+   * @param scanRecord The advertisement data, padded with zeros.
+   */
+  public static DeviceLabel resolveAdvertisement(
+      Context context, String name, String address, byte[] scanRecord) {
+    String[] device_types = { "Unknown", "Camera", "Doorbell", "Light", "Speaker", "Switch", "Thermostat" };
+    String[] device_brands = { "Unknown", "Arlo", "Nest", "Ring", "Hue", "Google" };
+    String[] device_models = { "Unknown", "Arlo", "Wired", "Video", "A19", "GU10", "Lightstrip", "Home Max", "Mini", "Dimmer", "Learning", "Thermostat" };
+    String[] device_data_types = { "None", "Personally Identifiable Data", "Audio", "Video", "Presence", "Information", "Location" };
+
+    // Create Data Structure to hold processed device data.
+    // Fields: Type Brand Model
+    String[] btleData = new String[3];
+    String[] deviceDataTypes = null;
+
+    // Build Output String
+    String foundDevice = context.getResources().getString(R.string.device_found_btle) + " \n" + name + " (" + address + ")";
+
+    // Parse the payload of the advertisement packet
+    // as a list of AD structures.
+    // SRC: https://stackoverflow.com/questions/32836728/how-to-identify-eddystone-url-and-uid
+    List<ADStructure> structures = ADPayloadParser.getInstance().parse(scanRecord);
+
+    // For each AD structure contained in the advertisement packet.
+    for (ADStructure structure : structures) {
+      // If the AD structure represents Eddystone UID.
+      if (structure instanceof EddystoneUID) {
+        // Eddystone UID
+        EddystoneUID es = (EddystoneUID) structure;
+
+        // Get string data of the beacon
+        String namespaceIdStr = es.getNamespaceIdAsString();  // 0x626c7565636861726d31
+        String instanceIdStr = es.getInstanceIdAsString();    // 0x000000000001
+
+        // Cannot use namespaceID for anything useful, must be 10 byte UUID namespace
+        // Can use InstanceID to hold usable data, though
+
+        // Process InstanceID for device information
+        //    0x 00 0 00 0000000
+        // Field 1  2 3  4
+        //
+        // Field 1 - Device Type (Int index)
+        // Field 2 - Brand       (Int Index)
+        // Field 3 - Model       (Int Index)
+        // Field 4 - Data Types  (Flags)
+
+        // Get Type from InstanceID
+        String tIndex = instanceIdStr.substring(0, instanceIdStr.length() - 10);
+        btleData[0] = device_types[Integer.parseInt(tIndex)];
+
+        // Get Brand from InstanceID
+        String bIndex = instanceIdStr.substring(2, instanceIdStr.length() - 9);
+        btleData[1] = device_brands[Integer.parseInt(bIndex)];
+
+        // Get Model from InstanceID
+        String mIndex = instanceIdStr.substring(3, instanceIdStr.length() - 7);
+        btleData[2] = device_models[Integer.parseInt(mIndex)];
+
+        // Get Data Types flags from InstanceID
+        String dFlags = instanceIdStr.substring(5);
+
+        // Get amount of permissions (1's) in flags
+        int type_amount = instanceIdStr.length() - instanceIdStr.replaceAll("1", "").length();
+
+        // Then set size of return data type string array based on that amount
+        deviceDataTypes = new String[type_amount];
+
+        // Check all flags
+        int count = 0;
+        for (int i = 0; i < dFlags.length(); i++) {
+          // Flag (char) set to true (set to 1)
+          if (dFlags.charAt(i) == '1') {
+            // Add the data type from the reference list to the current device list
+            deviceDataTypes[count] = device_data_types[i];
+
+            // Increment counter / index of return string array
+            count++;
+          }
+        }
+      }
+      // If the AD structure represents Eddystone URL.
+      else if (structure instanceof EddystoneURL)
+      {
+        // Eddystone URL (backup plan)
+        EddystoneURL es = (EddystoneURL)structure;
+
+        String namespaceURLStr = es.getURL().toString();
+      }
+    }
+
+    return new DeviceLabel(foundDevice, btleData, deviceDataTypes);
+  }
+
+  private static String lookupLabelString(Context context, String name) {
+    // Labels may carry values without a string resource, show those as they are.
+    Resources resources = context.getResources();
+    int id = resources.getIdentifier(name, "string", context.getPackageName());
+    return id != 0 ? resources.getString(id) : name;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+/**
+ * Decides whether the renderer can drop from continuous rendering to a reduced, on-demand cadence.
+ *
+ * <p>Rendering goes {@link Mode#IDLE} once the camera has been tracking for a while with no image
+ * under full tracking or newly found, and the camera has not moved. It goes back to {@link
+ * Mode#ACTIVE} as soon as the camera moves, an image is found or fully tracked, camera tracking is
+ * lost, or the user touches the screen. Images only known at their last pose are not drawn, so they
+ * do not keep it active. The time spent in each mode is recorded.
+ */
+public class IdleRenderPolicy {
+  /** How the renderer should run. */
+  public enum Mode {
+    /** Render continuously. */
+    ACTIVE,
+    /** Render on demand, at a reduced cadence. */
+    IDLE
+  }
+
+  // Time without any activity before rendering goes idle.
+  private static final long IDLE_DELAY_NANOS = 2000000000L;
+
+  // Change of any view matrix element between two frames that counts as camera motion. Rotation
+  // elements change by about the angle in radians, translation elements by meters.
+  private static final float MOTION_THRESHOLD = 0.01f;
+
+  private final float[] lastViewMatrix = new float[16];
+  private boolean hasLastViewMatrix = false;
+  private volatile boolean userInput = false;
+
+  private Mode mode = Mode.ACTIVE;
+  private long modeStartNanos = 0;
+  private long lastActivityNanos = 0;
+  private final long[] timeInModeNanos = new long[Mode.values().length];
+
+  /** Restarts in {@link Mode#ACTIVE}, e.g. when the session is resumed. */
+  public synchronized void reset(long nowNanos) {
+    closeMode(nowNanos);
+    mode = Mode.ACTIVE;
+    lastActivityNanos = nowNanos;
+    hasLastViewMatrix = false;
+  }
+
+  /** Stops recording time, e.g. when the session is paused. */
+  public synchronized void stop(long nowNanos) {
+    closeMode(nowNanos);
+    modeStartNanos = 0;
+  }
+
+  /** Notes user input, which wakes rendering up on the next frame. Safe to call from any thread. */
+  public void onUserInput() {
+    userInput = true;
+  }
+
+  /**
+   * Updates the policy with a frame and returns the mode to render the next frames in. Must be
+   * called from the GL thread.
+   *
+   * @param nowNanos The current {@link System#nanoTime()}.
+   * @param cameraTracking Whether the camera is tracking.
+   * @param fullTrackingImageCount The number of images under full tracking, which are drawn.
+   * @param imageAdded Whether an image that was not known was detected or tracked in this frame,
+   *     even if it is not drawn yet.
+   * @param viewMatrix The view matrix of the frame.
+   */
+  public synchronized Mode onFrame(
+      long nowNanos,
+      boolean cameraTracking,
+      int fullTrackingImageCount,
+      boolean imageAdded,
+      float[] viewMatrix) {
+    boolean moved = updateMotion(viewMatrix);
+    if (userInput) {
+      userInput = false;
+      lastActivityNanos = nowNanos;
+    }
+    if (moved || !cameraTracking || fullTrackingImageCount > 0 || imageAdded) {
+      lastActivityNanos = nowNanos;
+    }
+
+    Mode newMode =
+        nowNanos - lastActivityNanos >= IDLE_DELAY_NANOS ? Mode.IDLE : Mode.ACTIVE;
+    if (newMode != mode) {
+      closeMode(nowNanos);
+      mode = newMode;
+    }
+    return mode;
+  }
+
+  /** Returns the time spent rendering in the given mode, including the current one. */
+  public synchronized long getTimeInModeNanos(Mode mode, long nowNanos) {
+    long time = timeInModeNanos[mode.ordinal()];
+    if (mode == this.mode && modeStartNanos != 0) {
+      time += nowNanos - modeStartNanos;
+    }
+    return time;
+  }
+
+  @Override
+  public synchronized String toString() {
+    long nowNanos = System.nanoTime();
+    return "Render modes:"
+        + " active " + getTimeInModeNanos(Mode.ACTIVE, nowNanos) / 1000000 + " ms,"
+        + " idle " + getTimeInModeNanos(Mode.IDLE, nowNanos) / 1000000 + " ms";
+  }
+
+  private void closeMode(long nowNanos) {
+    if (modeStartNanos != 0) {
+      timeInModeNanos[mode.ordinal()] += nowNanos - modeStartNanos;
+    }
+    modeStartNanos = nowNanos;
+  }
+
+  private boolean updateMotion(float[] viewMatrix) {
+    boolean moved = !hasLastViewMatrix;
+    for (int i = 0; i < 16; ++i) {
+      if (Math.abs(viewMatrix[i] - lastViewMatrix[i]) > MOTION_THRESHOLD) {
+        moved = true;
+      }
+      lastViewMatrix[i] = viewMatrix[i];
+    }
+    hasLastViewMatrix = true;
+    return moved;
+  }
+}
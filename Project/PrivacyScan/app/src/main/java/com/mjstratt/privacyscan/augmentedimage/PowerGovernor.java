@@ -0,0 +1,143 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import android.bluetooth.le.ScanSettings;
+import android.os.PowerManager;
+
+/**
+ * Decides how much work to shed under thermal and battery pressure.
+ *
+ * <p>The pressure level rises as soon as the thermal status or battery level call for it, and
+ * falls back one level at a time, only after conditions have stayed better for {@link
+ * #RECOVERY_DELAY_NANOS}, so that the app does not oscillate around a threshold. Each level maps to
+ * a render interval, a Bluetooth scan mode, whether optional stages run and whether the camera
+ * resolution is reduced. The governor only holds state and does no I/O, so it can be driven by a
+ * recorded or simulated trace of {@link #update(long, int, int, boolean)} calls.
+ */
+public class PowerGovernor {
+  /** No pressure, everything runs at full rate and Bluetooth scans in low power mode. */
+  public static final int LEVEL_NOMINAL = 0;
+  /** Render at a lower rate. */
+  public static final int LEVEL_REDUCED = 1;
+  /**
+   * Render at a low rate, only receive Bluetooth scan results of other apps' scans and pause
+   * optional stages.
+   */
+  public static final int LEVEL_MINIMAL = 2;
+  /** Additionally use the lowest camera resolution. */
+  public static final int LEVEL_CRITICAL = 3;
+
+  /** Time conditions must stay better before the level drops by one. */
+  public static final long RECOVERY_DELAY_NANOS = 30000000000L;
+
+  // Render interval per level, 0 for continuous rendering.
+  private static final long[] RENDER_INTERVAL_MS = {0, 33, 66, 100};
+
+  // Battery levels, in percent, at which work is shed when not charging.
+  private static final int BATTERY_LOW_PERCENT = 15;
+  private static final int BATTERY_CRITICAL_PERCENT = 5;
+
+  private int level = LEVEL_NOMINAL;
+  // Time since which the target level has been below the current level, or 0.
+  private long recoveringSinceNanos = 0;
+
+  /**
+   * Updates the level from the current conditions.
+   *
+   * @param nowNanos The current time.
+   * @param thermalStatus One of the {@code PowerManager.THERMAL_STATUS_} constants.
+   * @param batteryPercent The battery level, 0 to 100.
+   * @param charging Whether the device is charging.
+   * @return Whether the level changed.
+   */
+  public boolean update(long nowNanos, int thermalStatus, int batteryPercent, boolean charging) {
+    int target = Math.max(getThermalLevel(thermalStatus), getBatteryLevel(batteryPercent, charging));
+
+    if (target >= level) {
+      recoveringSinceNanos = 0;
+      if (target == level) {
+        return false;
+      }
+      level = target;
+      return true;
+    }
+
+    if (recoveringSinceNanos == 0) {
+      recoveringSinceNanos = nowNanos;
+      return false;
+    }
+    if (nowNanos - recoveringSinceNanos < RECOVERY_DELAY_NANOS) {
+      return false;
+    }
+    // Step down one level, and wait again before the next one.
+    level--;
+    recoveringSinceNanos = level > target ? nowNanos : 0;
+    return true;
+  }
+
+  /** Returns the current level, one of the {@code LEVEL_} constants. */
+  public int getLevel() {
+    return level;
+  }
+
+  /** Returns the interval to render frames at, or 0 to render continuously. */
+  public long getRenderIntervalMs() {
+    return RENDER_INTERVAL_MS[level];
+  }
+
+  /**
+   * Returns the {@link ScanSettings} scan mode to scan for devices with. Scans never use more power
+   * than the low power mode the app always scanned in.
+   */
+  public int getBleScanMode() {
+    return level < LEVEL_MINIMAL
+        ? ScanSettings.SCAN_MODE_LOW_POWER
+        : ScanSettings.SCAN_MODE_OPPORTUNISTIC;
+  }
+
+  /** Returns whether optional stages, which image tracking does not need, should run. */
+  public boolean isOptionalStagesEnabled() {
+    return level < LEVEL_MINIMAL;
+  }
+
+  /** Returns whether the camera should run at its lowest resolution. */
+  public boolean isCameraResolutionReduced() {
+    return level >= LEVEL_CRITICAL;
+  }
+
+  private static int getThermalLevel(int thermalStatus) {
+    if (thermalStatus >= PowerManager.THERMAL_STATUS_CRITICAL) {
+      return LEVEL_CRITICAL;
+    } else if (thermalStatus >= PowerManager.THERMAL_STATUS_SEVERE) {
+      return LEVEL_MINIMAL;
+    } else if (thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE) {
+      return LEVEL_REDUCED;
+    }
+    return LEVEL_NOMINAL;
+  }
+
+  private static int getBatteryLevel(int batteryPercent, boolean charging) {
+    if (charging) {
+      return LEVEL_NOMINAL;
+    } else if (batteryPercent <= BATTERY_CRITICAL_PERCENT) {
+      return LEVEL_MINIMAL;
+    } else if (batteryPercent <= BATTERY_LOW_PERCENT) {
+      return LEVEL_REDUCED;
+    }
+    return LEVEL_NOMINAL;
+  }
+}
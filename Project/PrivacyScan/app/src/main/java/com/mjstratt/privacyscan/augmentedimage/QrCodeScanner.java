@@ -0,0 +1,248 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import android.graphics.Rect;
+import android.media.Image;
+import android.os.Process;
+import android.util.Log;
+import com.google.ar.core.Frame;
+import com.google.ar.core.exceptions.NotYetAvailableException;
+import com.google.ar.core.exceptions.ResourceExhaustedException;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decodes QR codes from ARCore camera images on a worker thread.
+ *
+ * <p>{@link #offer(Frame, long)} is called from the GL thread on every frame. When the worker is
+ * idle, it copies the luminance plane of the CPU camera image into a reused buffer and hands it to
+ * the worker; while a decode is running, frames are dropped, so the GL thread never waits. After a
+ * code has been found, only the region around it is copied and decoded, and the full image is only
+ * scanned at a lower rate.
+ */
+public class QrCodeScanner {
+  private static final String TAG = QrCodeScanner.class.getSimpleName();
+
+  /** Receives decoded payloads. Called on the worker thread. */
+  public interface Listener {
+    void onQrCodeDecoded(String payload);
+  }
+
+  // Minimum time between two decodes of the region around a recent detection, and of the full image.
+  private static final long REGION_DECODE_INTERVAL_NANOS = 100000000L;
+  private static final long FULL_DECODE_INTERVAL_NANOS = 500000000L;
+
+  // A detection limits decoding to its region for this long.
+  private static final long REGION_TIMEOUT_NANOS = 2000000000L;
+
+  // The same payload is reported again only after it has not been seen for this long.
+  private static final long REPEAT_SUPPRESSION_NANOS = 5000000000L;
+
+  // Fraction of the detected code size added around it on each side.
+  private static final float REGION_MARGIN = 0.5f;
+
+  private final Listener listener;
+  private final ExecutorService executor =
+      Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, TAG));
+  private final AtomicBoolean busy = new AtomicBoolean(false);
+  private final Runnable decodeTask = this::decode;
+
+  private final QRCodeReader reader = new QRCodeReader();
+  private final Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+
+  // Luminance of the image region being decoded. Written by the GL thread while the worker is idle,
+  // read by the worker while busy.
+  private byte[] luminance = new byte[0];
+  private final Rect copiedRegion = new Rect();
+
+  // Region of the most recent detection, in camera image pixels. Guarded by itself.
+  private final Rect recentRegion = new Rect();
+  private long recentRegionNanos = 0;
+
+  // GL thread only.
+  private long lastDecodeNanos = 0;
+
+  // Worker thread only.
+  private String lastPayload = null;
+  private long lastPayloadNanos = 0;
+
+  // Set by reset(), makes the worker forget the last payload.
+  private volatile boolean forgetLastPayload = false;
+
+  public QrCodeScanner(Listener listener) {
+    this.listener = listener;
+    hints.put(DecodeHintType.POSSIBLE_FORMATS, Collections.singletonList(BarcodeFormat.QR_CODE));
+  }
+
+  /**
+   * Hands the camera image of the frame to the worker, unless it is still busy or the previous
+   * decode was too recent. Must be called from the GL thread, after {@code Session.update()}.
+   *
+   * @param frame The current frame.
+   * @param nowNanos The current {@link System#nanoTime()}.
+   */
+  public void offer(Frame frame, long nowNanos) {
+    if (busy.get()) {
+      return;
+    }
+
+    boolean hasRecentRegion;
+    synchronized (recentRegion) {
+      hasRecentRegion =
+          !recentRegion.isEmpty() && nowNanos - recentRegionNanos < REGION_TIMEOUT_NANOS;
+      if (hasRecentRegion) {
+        copiedRegion.set(recentRegion);
+      }
+    }
+    long interval = hasRecentRegion ? REGION_DECODE_INTERVAL_NANOS : FULL_DECODE_INTERVAL_NANOS;
+    if (nowNanos - lastDecodeNanos < interval) {
+      return;
+    }
+
+    Image image;
+    try {
+      image = frame.acquireCameraImage();
+    } catch (NotYetAvailableException | ResourceExhaustedException e) {
+      // No CPU image for this frame, try again on the next one.
+      return;
+    }
+
+    try {
+      if (!hasRecentRegion || !copiedRegion.intersect(0, 0, image.getWidth(), image.getHeight())) {
+        copiedRegion.set(0, 0, image.getWidth(), image.getHeight());
+      }
+      copyLuminance(image.getPlanes()[0], copiedRegion);
+    } finally {
+      image.close();
+    }
+
+    lastDecodeNanos = nowNanos;
+    busy.set(true);
+    executor.execute(decodeTask);
+  }
+
+  /**
+   * Forgets the region of the last detection and the last payload, so that the next decode scans
+   * the full image and its payload is reported even if it is the same. Safe to call from any
+   * thread.
+   */
+  public void reset() {
+    synchronized (recentRegion) {
+      recentRegion.setEmpty();
+      recentRegionNanos = 0;
+    }
+    forgetLastPayload = true;
+  }
+
+  /** Stops the worker. The scanner cannot be used afterwards. */
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private void copyLuminance(Image.Plane plane, Rect region) {
+    int width = region.width();
+    int height = region.height();
+    if (luminance.length < width * height) {
+      luminance = new byte[width * height];
+    }
+
+    // The luminance plane always has a pixel stride of 1, but rows may be padded.
+    ByteBuffer buffer = plane.getBuffer();
+    int rowStride = plane.getRowStride();
+    for (int row = 0; row < height; ++row) {
+      buffer.position((region.top + row) * rowStride + region.left);
+      buffer.get(luminance, row * width, width);
+    }
+  }
+
+  private void decode() {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+    try {
+      int width = copiedRegion.width();
+      int height = copiedRegion.height();
+      PlanarYUVLuminanceSource source =
+          new PlanarYUVLuminanceSource(
+              luminance, width, height, 0, 0, width, height, /*reverseHorizontal=*/ false);
+      Result result = reader.decode(new BinaryBitmap(new HybridBinarizer(source)), hints);
+      onDecoded(result, System.nanoTime());
+    } catch (ReaderException e) {
+      // No QR code in this image.
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Exception decoding QR code", e);
+    } finally {
+      reader.reset();
+      busy.set(false);
+    }
+  }
+
+  private void onDecoded(Result result, long nowNanos) {
+    // Remember where the code was, so that the next decodes only look at that region.
+    ResultPoint[] points = result.getResultPoints();
+    if (points != null && points.length > 0) {
+      float minX = Float.MAX_VALUE;
+      float minY = Float.MAX_VALUE;
+      float maxX = -Float.MAX_VALUE;
+      float maxY = -Float.MAX_VALUE;
+      for (ResultPoint point : points) {
+        minX = Math.min(minX, point.getX());
+        minY = Math.min(minY, point.getY());
+        maxX = Math.max(maxX, point.getX());
+        maxY = Math.max(maxY, point.getY());
+      }
+      float marginX = (maxX - minX) * REGION_MARGIN;
+      float marginY = (maxY - minY) * REGION_MARGIN;
+      synchronized (recentRegion) {
+        recentRegion.set(
+            copiedRegion.left + (int) (minX - marginX),
+            copiedRegion.top + (int) (minY - marginY),
+            copiedRegion.left + (int) Math.ceil(maxX + marginX),
+            copiedRegion.top + (int) Math.ceil(maxY + marginY));
+        recentRegionNanos = nowNanos;
+      }
+    }
+
+    String payload = result.getText();
+    if (payload == null) {
+      return;
+    }
+    if (forgetLastPayload) {
+      forgetLastPayload = false;
+      lastPayload = null;
+    }
+    boolean repeated =
+        payload.equals(lastPayload) && nowNanos - lastPayloadNanos < REPEAT_SUPPRESSION_NANOS;
+    lastPayload = payload;
+    lastPayloadNanos = nowNanos;
+    if (!repeated) {
+      listener.onQrCodeDecoded(payload);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import com.google.ar.core.Config;
+import com.google.ar.core.Session;
+
+/**
+ * Sets of ARCore subsystems to run besides image tracking. Every enabled subsystem costs CPU time
+ * on every frame, so only enable what is drawn or used.
+ */
+public enum SessionProfile {
+  /** Only what image tracking needs. Objects are drawn with neutral color correction. */
+  LABELS_ONLY(
+      Config.PlaneFindingMode.DISABLED,
+      Config.LightEstimationMode.DISABLED,
+      Config.DepthMode.DISABLED,
+      Config.InstantPlacementMode.DISABLED),
+  /** The ARCore defaults: horizontal planes and ambient light estimation. */
+  STANDARD(
+      Config.PlaneFindingMode.HORIZONTAL,
+      Config.LightEstimationMode.AMBIENT_INTENSITY,
+      Config.DepthMode.DISABLED,
+      Config.InstantPlacementMode.DISABLED),
+  /** Every subsystem, with depth where the device supports it. */
+  FULL(
+      Config.PlaneFindingMode.HORIZONTAL_AND_VERTICAL,
+      Config.LightEstimationMode.AMBIENT_INTENSITY,
+      Config.DepthMode.AUTOMATIC,
+      Config.InstantPlacementMode.LOCAL_Y_UP);
+
+  private final Config.PlaneFindingMode planeFindingMode;
+  private final Config.LightEstimationMode lightEstimationMode;
+  private final Config.DepthMode depthMode;
+  private final Config.InstantPlacementMode instantPlacementMode;
+
+  SessionProfile(
+      Config.PlaneFindingMode planeFindingMode,
+      Config.LightEstimationMode lightEstimationMode,
+      Config.DepthMode depthMode,
+      Config.InstantPlacementMode instantPlacementMode) {
+    this.planeFindingMode = planeFindingMode;
+    this.lightEstimationMode = lightEstimationMode;
+    this.depthMode = depthMode;
+    this.instantPlacementMode = instantPlacementMode;
+  }
+
+  /**
+   * Sets the subsystem modes of this profile on the config. Depth is only enabled when the session
+   * supports it. The config still has to be applied with {@link Session#configure(Config)}.
+   */
+  public void applyTo(Config config, Session session) {
+    config.setPlaneFindingMode(planeFindingMode);
+    config.setLightEstimationMode(lightEstimationMode);
+    config.setDepthMode(
+        session.isDepthModeSupported(depthMode) ? depthMode : Config.DepthMode.DISABLED);
+    config.setInstantPlacementMode(instantPlacementMode);
+  }
+
+  /** Returns whether the light estimate is computed, and its color correction can be used. */
+  public boolean isLightEstimationEnabled() {
+    return lightEstimationMode != Config.LightEstimationMode.DISABLED;
+  }
+}
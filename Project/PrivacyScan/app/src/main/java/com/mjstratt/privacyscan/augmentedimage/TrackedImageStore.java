@@ -0,0 +1,159 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import com.google.ar.core.Anchor;
+import com.google.ar.core.AugmentedImage;
+import java.util.Arrays;
+
+/**
+ * Dense store of the augmented images known to the session, indexed directly by the index of the
+ * image in the database.
+ *
+ * <p>Image, anchor and state are kept in parallel arrays, and the indices of the live entries in a
+ * compact list, so iterating does not allocate and only touches live entries:
+ *
+ * <pre>{@code
+ * for (int i = 0; i < store.size(); ++i) {
+ *   int index = store.indexAt(i);
+ *   ...
+ * }
+ * }</pre>
+ *
+ * Removing an entry moves the last live entry into its place, so removal during iteration must step
+ * back one position. Must only be used from the GL thread.
+ */
+public class TrackedImageStore {
+  /** The image has been detected but is not tracked yet, and has no anchor. */
+  public static final int STATE_DETECTED = 1;
+  /** The image is tracked with {@code FULL_TRACKING} and can be drawn. */
+  public static final int STATE_FULL_TRACKING = 2;
+  /** The image is tracked, but its pose is not being updated from the camera image. */
+  public static final int STATE_LAST_KNOWN_POSE = 3;
+
+  private static final int NOT_ACTIVE = -1;
+
+  private AugmentedImage[] images = new AugmentedImage[0];
+  private Anchor[] anchors = new Anchor[0];
+  private byte[] states = new byte[0];
+
+  // Compact list of live image indices, and the position of each image index in that list.
+  private int[] activeIndices = new int[0];
+  private int[] activePositions = new int[0];
+  private int activeCount = 0;
+
+  /** Grows the store to hold {@code numImages} images. */
+  public void ensureCapacity(int numImages) {
+    int oldCapacity = images.length;
+    if (numImages <= oldCapacity) {
+      return;
+    }
+    images = Arrays.copyOf(images, numImages);
+    anchors = Arrays.copyOf(anchors, numImages);
+    states = Arrays.copyOf(states, numImages);
+    activeIndices = Arrays.copyOf(activeIndices, numImages);
+    activePositions = Arrays.copyOf(activePositions, numImages);
+    Arrays.fill(activePositions, oldCapacity, numImages, NOT_ACTIVE);
+  }
+
+  /**
+   * Adds or updates the entry of an image.
+   *
+   * @param index Index of the image in the database.
+   * @param image The image.
+   * @param anchor Center pose anchor of the image, or {@code null} if it has none.
+   * @param state One of the {@code STATE_} constants.
+   */
+  public void put(int index, AugmentedImage image, Anchor anchor, int state) {
+    if (index < 0 || index >= images.length) {
+      return;
+    }
+    images[index] = image;
+    anchors[index] = anchor;
+    states[index] = (byte) state;
+    if (activePositions[index] == NOT_ACTIVE) {
+      activePositions[index] = activeCount;
+      activeIndices[activeCount++] = index;
+    }
+  }
+
+  /** Clears the anchor of an image, e.g. after it was detached. The entry stays live. */
+  public void clearAnchor(int index) {
+    if (contains(index)) {
+      anchors[index] = null;
+    }
+  }
+
+  /** Removes the entry of an image, if present. */
+  public void remove(int index) {
+    if (!contains(index)) {
+      return;
+    }
+    int position = activePositions[index];
+    int lastIndex = activeIndices[--activeCount];
+    activeIndices[position] = lastIndex;
+    activePositions[lastIndex] = position;
+    activePositions[index] = NOT_ACTIVE;
+    images[index] = null;
+    anchors[index] = null;
+    states[index] = 0;
+  }
+
+  /** Removes all entries. */
+  public void clear() {
+    while (activeCount > 0) {
+      remove(activeIndices[activeCount - 1]);
+    }
+  }
+
+  /** Returns whether the image has a live entry. */
+  public boolean contains(int index) {
+    return index >= 0 && index < images.length && activePositions[index] != NOT_ACTIVE;
+  }
+
+  /** Returns the number of live entries. */
+  public int size() {
+    return activeCount;
+  }
+
+  /** Returns the image index of the live entry at the given position, {@code 0 <= i < size()}. */
+  public int indexAt(int i) {
+    return activeIndices[i];
+  }
+
+  /** Returns the number of live entries in the given state. */
+  public int countInState(int state) {
+    int count = 0;
+    for (int i = 0; i < activeCount; ++i) {
+      if (states[activeIndices[i]] == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public AugmentedImage getImage(int index) {
+    return images[index];
+  }
+
+  public Anchor getAnchor(int index) {
+    return anchors[index];
+  }
+
+  public int getState(int index) {
+    return states[index];
+  }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import com.google.ar.core.AugmentedImage;
+import com.google.ar.core.TrackingState;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records recognition latency and tracking quality for each augmented image, keyed by the index of
+ * the image in the database.
+ *
+ * <p>All per-image state is held in arrays sized by {@link #ensureCapacity(int)}, so recording from
+ * the frame loop does not allocate. Durations are binned into fixed-bucket histograms. Use {@link
+ * #snapshot(long)} to get a copy that can be shown on a debug screen or written to the session log.
+ */
+public class TrackingMetrics {
+  /** Upper bounds of the histogram buckets, in milliseconds. The last bucket is unbounded. */
+  private static final long[] BUCKET_BOUNDS_MS = {50, 100, 250, 500, 1000, 2000, 5000, 10000, 30000};
+
+  public static final int BUCKET_COUNT = BUCKET_BOUNDS_MS.length + 1;
+
+  // Tracking method slots used to index per-method timers.
+  public static final int METHOD_NOT_TRACKING = 0;
+  public static final int METHOD_FULL_TRACKING = 1;
+  public static final int METHOD_LAST_KNOWN_POSE = 2;
+  public static final int METHOD_COUNT = 3;
+
+  private static final long UNSET = -1;
+  private static final int UNKNOWN_METHOD = -1;
+
+  private int capacity = 0;
+  private long sessionStartNanos = UNSET;
+
+  // Per image index. Timestamps are System.nanoTime() values.
+  private long[] firstPausedNanos = new long[0];
+  private long[] pausedNanos = new long[0];
+  private int[] lastMethod = new int[0];
+  private long[] lastMethodChangeNanos = new long[0];
+  private boolean[] lost = new boolean[0];
+  private int[] lostCount = new int[0];
+  private int[] regainedCount = new int[0];
+
+  // Time spent in each tracking method, indexed by [image * METHOD_COUNT + method].
+  private long[] methodNanos = new long[0];
+
+  // Histograms, indexed by [image * BUCKET_COUNT + bucket].
+  private long[] startToPausedHistogram = new long[0];
+  private long[] pausedToFullHistogram = new long[0];
+
+  /**
+   * Grows the per-image storage to hold {@code numImages} images. Should be called when the image
+   * database is loaded, not from the frame loop.
+   */
+  public synchronized void ensureCapacity(int numImages) {
+    if (numImages <= capacity) {
+      return;
+    }
+    int oldCapacity = capacity;
+    capacity = numImages;
+
+    firstPausedNanos = grow(firstPausedNanos, capacity, UNSET);
+    pausedNanos = grow(pausedNanos, capacity, UNSET);
+    lastMethodChangeNanos = grow(lastMethodChangeNanos, capacity, UNSET);
+    lastMethod = Arrays.copyOf(lastMethod, capacity);
+    Arrays.fill(lastMethod, oldCapacity, capacity, UNKNOWN_METHOD);
+    lost = Arrays.copyOf(lost, capacity);
+    lostCount = Arrays.copyOf(lostCount, capacity);
+    regainedCount = Arrays.copyOf(regainedCount, capacity);
+    methodNanos = Arrays.copyOf(methodNanos, capacity * METHOD_COUNT);
+    startToPausedHistogram = Arrays.copyOf(startToPausedHistogram, capacity * BUCKET_COUNT);
+    pausedToFullHistogram = Arrays.copyOf(pausedToFullHistogram, capacity * BUCKET_COUNT);
+  }
+
+  /**
+   * Marks the start of a session, typically right after {@code Session.resume()}. Detection
+   * latency of each image is measured from this point, and time in each tracking method is counted
+   * again from the next update of the image.
+   */
+  public synchronized void onSessionStarted(long nowNanos) {
+    for (int i = 0; i < capacity; ++i) {
+      lastMethod[i] = UNKNOWN_METHOD;
+      firstPausedNanos[i] = UNSET;
+      pausedNanos[i] = UNSET;
+      lost[i] = false;
+    }
+    sessionStartNanos = nowNanos;
+  }
+
+  /**
+   * Marks the end of a session, right before {@code Session.pause()}. Time in the current tracking
+   * method of each image is counted up to this point, so that time spent paused is not.
+   */
+  public synchronized void onSessionPaused(long nowNanos) {
+    for (int i = 0; i < capacity; ++i) {
+      closeMethodInterval(i, nowNanos);
+      lastMethod[i] = UNKNOWN_METHOD;
+    }
+  }
+
+  /**
+   * Records the state of an augmented image reported by the current frame. Cheap to call for every
+   * updated image on every frame; work is only done on state changes.
+   */
+  public synchronized void onImageUpdated(
+      int index, TrackingState state, AugmentedImage.TrackingMethod method, long nowNanos) {
+    if (index < 0 || index >= capacity) {
+      return;
+    }
+
+    if (state == TrackingState.STOPPED) {
+      closeMethodInterval(index, nowNanos);
+      lastMethod[index] = UNKNOWN_METHOD;
+      pausedNanos[index] = UNSET;
+      lost[index] = false;
+      return;
+    }
+
+    // An image is first reported as PAUSED when detected, before it is tracked. Images that skip
+    // straight to TRACKING are treated as detected on the same frame.
+    if (firstPausedNanos[index] == UNSET) {
+      firstPausedNanos[index] = nowNanos;
+      pausedNanos[index] = nowNanos;
+      if (sessionStartNanos != UNSET) {
+        record(startToPausedHistogram, index, nowNanos - sessionStartNanos);
+      }
+    } else if (state == TrackingState.PAUSED && pausedNanos[index] == UNSET) {
+      pausedNanos[index] = nowNanos;
+    }
+
+    int slot = state == TrackingState.TRACKING ? methodSlot(method) : METHOD_NOT_TRACKING;
+    int previous = lastMethod[index];
+    if (slot == previous) {
+      return;
+    }
+
+    closeMethodInterval(index, nowNanos);
+    lastMethod[index] = slot;
+    lastMethodChangeNanos[index] = nowNanos;
+
+    if (slot == METHOD_FULL_TRACKING) {
+      if (pausedNanos[index] != UNSET) {
+        record(pausedToFullHistogram, index, nowNanos - pausedNanos[index]);
+        pausedNanos[index] = UNSET;
+      }
+      if (lost[index]) {
+        lost[index] = false;
+        regainedCount[index]++;
+      }
+    } else if (previous == METHOD_FULL_TRACKING) {
+      lost[index] = true;
+      lostCount[index]++;
+    }
+  }
+
+  /** Returns a copy of the collected metrics, including time spent in the current method. */
+  public synchronized Snapshot snapshot(long nowNanos) {
+    long[] methodNanosCopy = Arrays.copyOf(methodNanos, capacity * METHOD_COUNT);
+    for (int i = 0; i < capacity; ++i) {
+      if (lastMethod[i] != UNKNOWN_METHOD) {
+        methodNanosCopy[i * METHOD_COUNT + lastMethod[i]] += nowNanos - lastMethodChangeNanos[i];
+      }
+    }
+    return new Snapshot(
+        capacity,
+        Arrays.copyOf(firstPausedNanos, capacity),
+        sessionStartNanos,
+        methodNanosCopy,
+        Arrays.copyOf(lostCount, capacity),
+        Arrays.copyOf(regainedCount, capacity),
+        Arrays.copyOf(startToPausedHistogram, capacity * BUCKET_COUNT),
+        Arrays.copyOf(pausedToFullHistogram, capacity * BUCKET_COUNT));
+  }
+
+  private void closeMethodInterval(int index, long nowNanos) {
+    if (lastMethod[index] != UNKNOWN_METHOD) {
+      methodNanos[index * METHOD_COUNT + lastMethod[index]] +=
+          nowNanos - lastMethodChangeNanos[index];
+      lastMethodChangeNanos[index] = nowNanos;
+    }
+  }
+
+  private static void record(long[] histogram, int index, long durationNanos) {
+    histogram[index * BUCKET_COUNT + bucketOf(durationNanos / 1000000L)]++;
+  }
+
+  private static int bucketOf(long durationMs) {
+    for (int i = 0; i < BUCKET_BOUNDS_MS.length; ++i) {
+      if (durationMs < BUCKET_BOUNDS_MS[i]) {
+        return i;
+      }
+    }
+    return BUCKET_BOUNDS_MS.length;
+  }
+
+  private static int methodSlot(AugmentedImage.TrackingMethod method) {
+    switch (method) {
+      case FULL_TRACKING:
+        return METHOD_FULL_TRACKING;
+      case LAST_KNOWN_POSE:
+        return METHOD_LAST_KNOWN_POSE;
+      case NOT_TRACKING:
+      default:
+        return METHOD_NOT_TRACKING;
+    }
+  }
+
+  private static long[] grow(long[] array, int newLength, long fillValue) {
+    int oldLength = array.length;
+    long[] grown = Arrays.copyOf(array, newLength);
+    Arrays.fill(grown, oldLength, newLength, fillValue);
+    return grown;
+  }
+
+  /** Immutable copy of the metrics at a point in time. */
+  public static final class Snapshot {
+    private final int imageCount;
+    private final long[] firstPausedNanos;
+    private final long sessionStartNanos;
+    private final long[] methodNanos;
+    private final int[] lostCount;
+    private final int[] regainedCount;
+    private final long[] startToPausedHistogram;
+    private final long[] pausedToFullHistogram;
+
+    private Snapshot(
+        int imageCount,
+        long[] firstPausedNanos,
+        long sessionStartNanos,
+        long[] methodNanos,
+        int[] lostCount,
+        int[] regainedCount,
+        long[] startToPausedHistogram,
+        long[] pausedToFullHistogram) {
+      this.imageCount = imageCount;
+      this.firstPausedNanos = firstPausedNanos;
+      this.sessionStartNanos = sessionStartNanos;
+      this.methodNanos = methodNanos;
+      this.lostCount = lostCount;
+      this.regainedCount = regainedCount;
+      this.startToPausedHistogram = startToPausedHistogram;
+      this.pausedToFullHistogram = pausedToFullHistogram;
+    }
+
+    public int getImageCount() {
+      return imageCount;
+    }
+
+    /** Returns the upper bound of a histogram bucket in milliseconds, or -1 if unbounded. */
+    public static long getBucketBoundMs(int bucket) {
+      return bucket < BUCKET_BOUNDS_MS.length ? BUCKET_BOUNDS_MS[bucket] : -1;
+    }
+
+    /** Returns whether the image has been detected since the session started. */
+    public boolean wasDetected(int index) {
+      return firstPausedNanos[index] != UNSET;
+    }
+
+    /** Time from session start to the first detection of the image in this session, or -1. */
+    public long getTimeToFirstPausedMs(int index) {
+      if (firstPausedNanos[index] == UNSET || sessionStartNanos == UNSET) {
+        return -1;
+      }
+      return (firstPausedNanos[index] - sessionStartNanos) / 1000000L;
+    }
+
+    /** Total time spent in the given method slot, e.g. {@link #METHOD_LAST_KNOWN_POSE}. */
+    public long getTimeInMethodMs(int index, int method) {
+      return methodNanos[index * METHOD_COUNT + method] / 1000000L;
+    }
+
+    public int getLostCount(int index) {
+      return lostCount[index];
+    }
+
+    public int getRegainedCount(int index) {
+      return regainedCount[index];
+    }
+
+    /** Count of session-start-to-detection samples in the given bucket. */
+    public long getStartToPausedCount(int index, int bucket) {
+      return startToPausedHistogram[index * BUCKET_COUNT + bucket];
+    }
+
+    /** Count of detection-to-{@code FULL_TRACKING} samples in the given bucket. */
+    public long getPausedToFullTrackingCount(int index, int bucket) {
+      return pausedToFullHistogram[index * BUCKET_COUNT + bucket];
+    }
+
+    /** Formats the metrics of every image seen so far, one line per image, for logs. */
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("Tracking metrics (buckets ms:");
+      for (long bound : BUCKET_BOUNDS_MS) {
+        sb.append(" <").append(bound);
+      }
+      sb.append(" >=").append(BUCKET_BOUNDS_MS[BUCKET_BOUNDS_MS.length - 1]).append(')');
+
+      for (int i = 0; i < imageCount; ++i) {
+        if (!hasData(i)) {
+          continue;
+        }
+        sb.append(
+            String.format(
+                Locale.ROOT,
+                "\n#%d firstPaused=%dms full=%dms lastKnown=%dms none=%dms lost=%d regained=%d",
+                i,
+                getTimeToFirstPausedMs(i),
+                getTimeInMethodMs(i, METHOD_FULL_TRACKING),
+                getTimeInMethodMs(i, METHOD_LAST_KNOWN_POSE),
+                getTimeInMethodMs(i, METHOD_NOT_TRACKING),
+                lostCount[i],
+                regainedCount[i]));
+        appendHistogram(sb, " startToPaused=", startToPausedHistogram, i);
+        appendHistogram(sb, " pausedToFull=", pausedToFullHistogram, i);
+      }
+      return sb.toString();
+    }
+
+    private boolean hasData(int index) {
+      for (int bucket = 0; bucket < BUCKET_COUNT; ++bucket) {
+        if (startToPausedHistogram[index * BUCKET_COUNT + bucket] != 0) {
+          return true;
+        }
+      }
+      return wasDetected(index);
+    }
+
+    private static void appendHistogram(StringBuilder sb, String label, long[] histogram, int i) {
+      sb.append(label).append('[');
+      for (int bucket = 0; bucket < BUCKET_COUNT; ++bucket) {
+        if (bucket > 0) {
+          sb.append(',');
+        }
+        sb.append(histogram[i * BUCKET_COUNT + bucket]);
+      }
+      sb.append(']');
+    }
+  }
+}
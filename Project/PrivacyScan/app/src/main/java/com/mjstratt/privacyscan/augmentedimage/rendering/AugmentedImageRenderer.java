@@ -19,116 +19,208 @@ import android.content.Context;
 import com.google.ar.core.Anchor;
 import com.google.ar.core.AugmentedImage;
 import com.google.ar.core.Pose;
-import com.google.ar.core.examples.java.common.rendering.ObjectRenderer;
-import com.google.ar.core.examples.java.common.rendering.ObjectRenderer.BlendMode;
+import com.google.ar.core.examples.java.common.rendering.Frustum;
+import com.google.ar.core.examples.java.common.rendering.GlResourceCache;
 import java.io.IOException;
+import java.util.Arrays;
 
 /** Renders an augmented image. */
 public class AugmentedImageRenderer {
-  private static final String TAG = "AugmentedImageRenderer";
-
   private static final float TINT_INTENSITY = 0.1f;
   private static final float TINT_ALPHA = 1.0f;
   private static final int[] TINT_COLORS_HEX = {
     0x000000, 0xF44336, 0xE91E63, 0x9C27B0, 0x673AB7, 0x3F51B5, 0x2196F3, 0x03A9F4, 0x00BCD4,
     0x009688, 0x4CAF50, 0x8BC34A, 0xCDDC39, 0xFFEB3B, 0xFFC107, 0xFF9800,
   };
+  private static final float[][] TINT_COLORS = new float[TINT_COLORS_HEX.length][];
 
-  private final ObjectRenderer imageFrameUpperLeft = new ObjectRenderer();
-  private final ObjectRenderer imageFrameUpperRight = new ObjectRenderer();
-  private final ObjectRenderer imageFrameLowerLeft = new ObjectRenderer();
-  private final ObjectRenderer imageFrameLowerRight = new ObjectRenderer();
+  static {
+    for (int i = 0; i < TINT_COLORS_HEX.length; ++i) {
+      TINT_COLORS[i] = convertHexToColor(TINT_COLORS_HEX[i]);
+    }
+  }
 
-  private final ObjectRenderer DeviceInfo = new ObjectRenderer();
+  private final FrameBatchRenderer frameBatch = new FrameBatchRenderer();
 
-  public AugmentedImageRenderer() {}
+  // Change of an anchor pose, in meters and quaternion components, or of an image extent, in
+  // meters, beyond which the cached model matrix and extent of the image are rebuilt.
+  private static final float POSE_EPSILON = 0.0001f;
+  private static final float EXTENT_EPSILON = 0.0001f;
 
-  public void createOnGlThread(Context context) throws IOException {
+  // Images whose frame covers less than this fraction of the screen height are drawn unlit.
+  private static final float SIMPLE_SCREEN_FRACTION = 0.1f;
 
-    imageFrameUpperLeft.createOnGlThread(
-        context, "models/frame_upper_left.obj", "models/frame_base.png");
-    imageFrameUpperLeft.setMaterialProperties(0.0f, 3.5f, 1.0f, 6.0f);
-    imageFrameUpperLeft.setBlendMode(BlendMode.AlphaBlending);
+  // Per image index: whether it is cached, the pose its model matrix was built from (tx, ty, tz,
+  // qx, qy, qz, qw), the model matrix and the half extents (x, z).
+  private boolean[] cached = new boolean[0];
+  private float[] cachedPoses = new float[0];
+  private float[] modelMatrices = new float[0];
+  private float[] halfExtents = new float[0];
 
-    imageFrameUpperRight.createOnGlThread(
-        context, "models/frame_upper_right.obj", "models/frame_base.png");
-    imageFrameUpperRight.setMaterialProperties(0.0f, 3.5f, 1.0f, 6.0f);
-    imageFrameUpperRight.setBlendMode(BlendMode.AlphaBlending);
+  // Visibility pass of the current frame.
+  private final Frustum frustum = new Frustum();
+  private final float[] bounds = new float[6];
+  private float[] viewMatrix;
+  private float[] projectionMatrix;
+  private int culledCount;
+  private int simpleCount;
 
-    imageFrameLowerLeft.createOnGlThread(
-        context, "models/frame_lower_left.obj", "models/frame_base.png");
-    imageFrameLowerLeft.setMaterialProperties(0.0f, 3.5f, 1.0f, 6.0f);
-    imageFrameLowerLeft.setBlendMode(BlendMode.AlphaBlending);
+  public AugmentedImageRenderer() {}
 
-    imageFrameLowerRight.createOnGlThread(
-        context, "models/frame_lower_right.obj", "models/frame_base.png");
-    imageFrameLowerRight.setMaterialProperties(0.0f, 3.5f, 1.0f, 6.0f);
-    imageFrameLowerRight.setBlendMode(BlendMode.AlphaBlending);
+  /** Creates the GL resources of the frame corners, sharing them through the cache. */
+  public void createOnGlThread(Context context, GlResourceCache resourceCache) throws IOException {
+    frameBatch.createOnGlThread(context, resourceCache);
+  }
 
-//    DeviceInfo.createOnGlThread(context, "models/anchor.obj", "models/anchor.png");
-//    DeviceInfo.setMaterialProperties(0.0f, 3.5f, 1.0f, 6.0f);
-//    DeviceInfo.setBlendMode(BlendMode.AlphaBlending);
+  /**
+   * Starts drawing a frame. Images added with {@link #draw(AugmentedImage, Anchor)} are batched
+   * and drawn by {@link #endFrame()}.
+   */
+  public void beginFrame(float[] viewMatrix, float[] projectionMatrix, float[] colorCorrectionRgba) {
+    this.viewMatrix = viewMatrix;
+    this.projectionMatrix = projectionMatrix;
+    frustum.set(viewMatrix, projectionMatrix);
+    culledCount = 0;
+    simpleCount = 0;
+    frameBatch.begin(viewMatrix, projectionMatrix, colorCorrectionRgba);
   }
 
-  public void draw(
-      float[] viewMatrix,
-      float[] projectionMatrix,
-      AugmentedImage augmentedImage,
-      Anchor centerAnchor,
-      float[] colorCorrectionRgba) {
-      float[] tintColor = convertHexToColor(TINT_COLORS_HEX[augmentedImage.getIndex() % TINT_COLORS_HEX.length]);
-
-    Pose[] localBoundaryPoses = {
-      Pose.makeTranslation(
-          -0.5f * augmentedImage.getExtentX(),
-          0.0f,
-          -0.5f * augmentedImage.getExtentZ()), // upper left
-      Pose.makeTranslation(
-          0.5f * augmentedImage.getExtentX(),
-          0.0f,
-          -0.5f * augmentedImage.getExtentZ()), // upper right
-      Pose.makeTranslation(
-          0.5f * augmentedImage.getExtentX(),
-          0.0f,
-          0.5f * augmentedImage.getExtentZ()), // lower right
-      Pose.makeTranslation(
-          -0.5f * augmentedImage.getExtentX(),
-          0.0f,
-          0.5f * augmentedImage.getExtentZ()), // lower left
-      Pose.makeTranslation(
-          0.8f * augmentedImage.getExtentX(),
-          0.0f,
-          -0.5f * augmentedImage.getExtentZ()), // device info
-    };
-
-    Pose anchorPose = centerAnchor.getPose();
-    Pose[] worldBoundaryPoses = new Pose[5];
-    for (int i = 0; i < 5; ++i) {
-      worldBoundaryPoses[i] = anchorPose.compose(localBoundaryPoses[i]);
+  /**
+   * Adds the frame of an image, centered on its anchor, to the current frame. The model matrix of
+   * the image is only rebuilt when its anchor moved or its extent changed. Frames outside the view
+   * are skipped, and frames small on screen are drawn unlit.
+   */
+  public void draw(AugmentedImage augmentedImage, Anchor centerAnchor) {
+    draw(
+        augmentedImage.getIndex(),
+        augmentedImage.getExtentX(),
+        augmentedImage.getExtentZ(),
+        centerAnchor.getPose());
+  }
+
+  /**
+   * Adds the frame of an image to the current frame, like {@link #draw(AugmentedImage, Anchor)},
+   * from the index, extent and center pose of the image.
+   */
+  public void draw(int index, float extentX, float extentZ, Pose pose) {
+    float[] tintColor = TINT_COLORS[index % TINT_COLORS.length];
+    ensureCapacity(index + 1);
+
+    float halfExtentX = 0.5f * extentX;
+    float halfExtentZ = 0.5f * extentZ;
+    if (!cached[index]
+        || poseChanged(index, pose)
+        || Math.abs(halfExtents[2 * index] - halfExtentX) > EXTENT_EPSILON
+        || Math.abs(halfExtents[2 * index + 1] - halfExtentZ) > EXTENT_EPSILON) {
+      updateCache(index, pose, halfExtentX, halfExtentZ);
+    }
+
+    frameBatch.getBounds(halfExtents[2 * index], halfExtents[2 * index + 1], bounds);
+    if (!frustum.intersectsBox(modelMatrices, 16 * index, bounds)) {
+      culledCount++;
+      return;
     }
+    boolean simple = getScreenFraction(16 * index) < SIMPLE_SCREEN_FRACTION;
+    if (simple) {
+      simpleCount++;
+    }
+
+    // The corners are moved out from the anchor by the half extents in the shader.
+    frameBatch.add(
+        modelMatrices,
+        16 * index,
+        halfExtents[2 * index],
+        halfExtents[2 * index + 1],
+        tintColor,
+        simple);
+  }
 
-    float scaleFactor = 1.0f;
-    float[] modelMatrix = new float[16];
+  /** Draws the images added since {@link #beginFrame(float[], float[], float[])}. */
+  public void endFrame() {
+    frameBatch.end();
+  }
 
-    worldBoundaryPoses[0].toMatrix(modelMatrix, 0);
-    imageFrameUpperLeft.updateModelMatrix(modelMatrix, scaleFactor);
-    imageFrameUpperLeft.draw(viewMatrix, projectionMatrix, colorCorrectionRgba, tintColor);
+  /** Returns the number of draw calls of the last frame. */
+  public int getDrawCallCount() {
+    return frameBatch.getDrawCallCount();
+  }
 
-    worldBoundaryPoses[1].toMatrix(modelMatrix, 0);
-    imageFrameUpperRight.updateModelMatrix(modelMatrix, scaleFactor);
-    imageFrameUpperRight.draw(viewMatrix, projectionMatrix, colorCorrectionRgba, tintColor);
+  /** Returns the number of images drawn in the last frame. */
+  public int getImageCount() {
+    return frameBatch.getInstanceCount();
+  }
 
-    worldBoundaryPoses[2].toMatrix(modelMatrix, 0);
-    imageFrameLowerRight.updateModelMatrix(modelMatrix, scaleFactor);
-    imageFrameLowerRight.draw(viewMatrix, projectionMatrix, colorCorrectionRgba, tintColor);
+  /** Returns the number of images drawn unlit in the last frame, because they were small. */
+  public int getSimpleImageCount() {
+    return simpleCount;
+  }
 
-    worldBoundaryPoses[3].toMatrix(modelMatrix, 0);
-    imageFrameLowerLeft.updateModelMatrix(modelMatrix, scaleFactor);
-    imageFrameLowerLeft.draw(viewMatrix, projectionMatrix, colorCorrectionRgba, tintColor);
+  /** Returns the number of images skipped in the last frame, because they were out of view. */
+  public int getCulledImageCount() {
+    return culledCount;
+  }
+
+  /**
+   * Returns about which fraction of the screen height the frame in {@link #bounds} covers, from
+   * the radius of its bounds and the distance of their center from the camera.
+   */
+  private float getScreenFraction(int modelMatrixOffset) {
+    float[] m = modelMatrices;
+    int o = modelMatrixOffset;
+    float localX = 0.5f * (bounds[0] + bounds[3]);
+    float localY = 0.5f * (bounds[1] + bounds[4]);
+    float localZ = 0.5f * (bounds[2] + bounds[5]);
+    float x = m[o] * localX + m[o + 4] * localY + m[o + 8] * localZ + m[o + 12];
+    float y = m[o + 1] * localX + m[o + 5] * localY + m[o + 9] * localZ + m[o + 13];
+    float z = m[o + 2] * localX + m[o + 6] * localY + m[o + 10] * localZ + m[o + 14];
+    // The camera looks down -z in view space.
+    float depth = -(viewMatrix[2] * x + viewMatrix[6] * y + viewMatrix[10] * z + viewMatrix[14]);
+    float sizeX = bounds[3] - bounds[0];
+    float sizeY = bounds[4] - bounds[1];
+    float sizeZ = bounds[5] - bounds[2];
+    float radius = 0.5f * (float) Math.sqrt(sizeX * sizeX + sizeY * sizeY + sizeZ * sizeZ);
+    if (depth <= radius) {
+      // The camera is inside or next to the frame.
+      return 1.0f;
+    }
+    // A height h at depth d covers h * projectionMatrix[5] / (2 * d) of the screen height.
+    return radius * projectionMatrix[5] / depth;
+  }
+
+  private void ensureCapacity(int numImages) {
+    if (numImages <= cached.length) {
+      return;
+    }
+    cached = Arrays.copyOf(cached, numImages);
+    cachedPoses = Arrays.copyOf(cachedPoses, 7 * numImages);
+    modelMatrices = Arrays.copyOf(modelMatrices, 16 * numImages);
+    halfExtents = Arrays.copyOf(halfExtents, 2 * numImages);
+  }
+
+  private boolean poseChanged(int index, Pose pose) {
+    int offset = 7 * index;
+    return Math.abs(cachedPoses[offset] - pose.tx()) > POSE_EPSILON
+        || Math.abs(cachedPoses[offset + 1] - pose.ty()) > POSE_EPSILON
+        || Math.abs(cachedPoses[offset + 2] - pose.tz()) > POSE_EPSILON
+        || Math.abs(cachedPoses[offset + 3] - pose.qx()) > POSE_EPSILON
+        || Math.abs(cachedPoses[offset + 4] - pose.qy()) > POSE_EPSILON
+        || Math.abs(cachedPoses[offset + 5] - pose.qz()) > POSE_EPSILON
+        || Math.abs(cachedPoses[offset + 6] - pose.qw()) > POSE_EPSILON;
+  }
 
-//    worldBoundaryPoses[4].toMatrix(modelMatrix, 0);
-//    DeviceInfo.updateModelMatrix(modelMatrix, scaleFactor);
-//    DeviceInfo.draw(viewMatrix, projectionMatrix, colorCorrectionRgba, tintColor);
+  private void updateCache(int index, Pose pose, float halfExtentX, float halfExtentZ) {
+    int offset = 7 * index;
+    cachedPoses[offset] = pose.tx();
+    cachedPoses[offset + 1] = pose.ty();
+    cachedPoses[offset + 2] = pose.tz();
+    cachedPoses[offset + 3] = pose.qx();
+    cachedPoses[offset + 4] = pose.qy();
+    cachedPoses[offset + 5] = pose.qz();
+    cachedPoses[offset + 6] = pose.qw();
+    pose.toMatrix(modelMatrices, 16 * index);
+    halfExtents[2 * index] = halfExtentX;
+    halfExtents[2 * index + 1] = halfExtentZ;
+    cached[index] = true;
   }
 
   private static float[] convertHexToColor(int colorHex) {
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage.rendering;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.ar.core.examples.java.common.rendering.BinaryMesh;
+import com.google.ar.core.examples.java.common.rendering.GlResourceCache;
+import com.google.ar.core.examples.java.common.rendering.GlState;
+import com.google.ar.core.examples.java.common.rendering.GlValidation;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Draws the four frame corners of many images with a few draw calls.
+ *
+ * <p>The four corner meshes are merged into one vertex buffer, which is repeated once per image
+ * slot of a batch. Each vertex carries its slot and the direction of its corner, and the vertex
+ * shader places it with the model-view matrix and half extent of the image in that slot, so one
+ * draw call draws up to {@link #MAX_INSTANCES_PER_DRAW} images. Images that are small on screen can
+ * be drawn with a simple, unlit program, in batches of their own. Usage, on the GL thread:
+ *
+ * <pre>{@code
+ * renderer.begin(viewMatrix, projectionMatrix, colorCorrectionRgba);
+ * renderer.add(modelMatrix, 0, halfExtentX, halfExtentZ, color, simple); // For each image.
+ * renderer.end();
+ * }</pre>
+ */
+public class FrameBatchRenderer {
+  private static final String TAG = FrameBatchRenderer.class.getSimpleName();
+
+  /**
+   * Images drawn per draw call. Each image takes 6 uniform vectors, which keeps a full batch within
+   * the 128 vertex uniform vectors every OpenGL ES 2.0 device has.
+   */
+  public static final int MAX_INSTANCES_PER_DRAW = 16;
+
+  private static final String VERTEX_SHADER_NAME = "shaders/frame_batch.vert";
+  private static final String FRAGMENT_SHADER_NAME = "shaders/frame_batch.frag";
+  private static final String TEXTURE_NAME = "models/frame_base.png";
+
+  // Corner meshes, compiled from the OBJ models at build time, and the direction each is moved in
+  // from the image center, in the image plane.
+  private static final String[] CORNER_MESH_NAMES = {
+    "models/frame_upper_left.mesh",
+    "models/frame_upper_right.mesh",
+    "models/frame_lower_right.mesh",
+    "models/frame_lower_left.mesh",
+  };
+  private static final float[][] CORNER_DIRECTIONS = {{-1, -1}, {1, -1}, {1, 1}, {-1, 1}};
+
+  // Interleaved vertex layout: position, normal, texture coordinates and corner.
+  private static final int POSITION_OFFSET = 0;
+  private static final int NORMAL_OFFSET = 3;
+  private static final int TEX_COORD_OFFSET = 6;
+  private static final int CORNER_OFFSET = 8;
+  private static final int FLOATS_PER_VERTEX = 11;
+  private static final int BYTES_PER_FLOAT = 4;
+  private static final int STRIDE = FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+
+  // Short indices address at most this many vertices.
+  private static final int MAX_VERTICES = 65536;
+
+  private static final float[] LIGHT_DIRECTION = new float[] {0.250f, 0.866f, 0.433f, 0.0f};
+
+  // Material of the frame corners.
+  private static final float AMBIENT = 0.0f;
+  private static final float DIFFUSE = 3.5f;
+  private static final float SPECULAR = 1.0f;
+  private static final float SPECULAR_POWER = 6.0f;
+
+  /** A program, its parameters, and the images queued for it. */
+  private static final class Batch {
+    private GlResourceCache.Program program;
+
+    // Shader program parameters. The simple program has no lighting parameters; they are -1.
+    private int projectionUniform;
+    private int lightDirectionUniform;
+    private int modelViewUniform;
+    private int halfExtentUniform;
+    private int objColorUniform;
+    private int textureUniform;
+    private int materialParametersUniform;
+    private int colorCorrectionParameterUniform;
+    private int positionAttribute;
+    private int normalAttribute;
+    private int texCoordAttribute;
+    private int cornerAttribute;
+
+    // Images of the current batch.
+    private final float[] modelViews = new float[16 * MAX_INSTANCES_PER_DRAW];
+    private final float[] halfExtents = new float[4 * MAX_INSTANCES_PER_DRAW];
+    private final float[] objColors = new float[4 * MAX_INSTANCES_PER_DRAW];
+    private int size;
+  }
+
+  // Shared GL resources, owned by the cache.
+  private GlResourceCache resourceCache;
+  private GlResourceCache.Texture texture;
+
+  private final Batch litBatch = new Batch();
+  private final Batch simpleBatch = new Batch();
+
+  private int vertexBufferId;
+  private int indexBufferId;
+  private int indicesPerInstance;
+  private int instancesPerDraw;
+
+  // Bounds of each corner mesh: min xyz, max xyz.
+  private final float[][] cornerBounds = new float[CORNER_MESH_NAMES.length][6];
+
+  // State of the current frame.
+  private float[] viewMatrix;
+  private float[] projectionMatrix;
+  private float[] colorCorrectionRgba;
+  private Batch boundBatch;
+  private int drawCallCount;
+  private int instanceCount;
+
+  /** Creates the GL resources. The programs and texture are shared through the cache. */
+  public void createOnGlThread(Context context, GlResourceCache resourceCache) throws IOException {
+    this.resourceCache = resourceCache;
+
+    createBatch(context, litBatch, /*unlit=*/ false);
+    createBatch(context, simpleBatch, /*unlit=*/ true);
+    texture = resourceCache.acquireTexture(context, TEXTURE_NAME);
+
+    loadCornerMeshes(context);
+  }
+
+  /** Releases the GL resources. */
+  public void release() {
+    if (resourceCache == null) {
+      return;
+    }
+    resourceCache.release(litBatch.program);
+    resourceCache.release(simpleBatch.program);
+    resourceCache.release(texture);
+    litBatch.program = null;
+    simpleBatch.program = null;
+    texture = null;
+    GLES20.glDeleteBuffers(2, new int[] {vertexBufferId, indexBufferId}, 0);
+    GlState.invalidate();
+    vertexBufferId = 0;
+    indexBufferId = 0;
+  }
+
+  /**
+   * Returns the bounds of the frame of an image, around the image center, in {@code bounds}: min
+   * xyz, max xyz.
+   */
+  public void getBounds(float halfExtentX, float halfExtentZ, float[] bounds) {
+    for (int c = 0; c < 3; ++c) {
+      bounds[c] = Float.MAX_VALUE;
+      bounds[3 + c] = -Float.MAX_VALUE;
+    }
+    for (int i = 0; i < cornerBounds.length; ++i) {
+      float offsetX = CORNER_DIRECTIONS[i][0] * halfExtentX;
+      float offsetZ = CORNER_DIRECTIONS[i][1] * halfExtentZ;
+      bounds[0] = Math.min(bounds[0], cornerBounds[i][0] + offsetX);
+      bounds[1] = Math.min(bounds[1], cornerBounds[i][1]);
+      bounds[2] = Math.min(bounds[2], cornerBounds[i][2] + offsetZ);
+      bounds[3] = Math.max(bounds[3], cornerBounds[i][3] + offsetX);
+      bounds[4] = Math.max(bounds[4], cornerBounds[i][4]);
+      bounds[5] = Math.max(bounds[5], cornerBounds[i][5] + offsetZ);
+    }
+  }
+
+  /**
+   * Starts a frame. The arrays are read until {@link #end()}.
+   *
+   * @param viewMatrix A 4x4 view matrix, in column-major order.
+   * @param projectionMatrix A 4x4 projection matrix, in column-major order.
+   * @param colorCorrectionRgba Illumination intensity.
+   */
+  public void begin(float[] viewMatrix, float[] projectionMatrix, float[] colorCorrectionRgba) {
+    this.viewMatrix = viewMatrix;
+    this.projectionMatrix = projectionMatrix;
+    this.colorCorrectionRgba = colorCorrectionRgba;
+    litBatch.size = 0;
+    simpleBatch.size = 0;
+    drawCallCount = 0;
+    instanceCount = 0;
+  }
+
+  /**
+   * Adds the frame of an image. Draws the batch when it is full.
+   *
+   * @param modelMatrix The 4x4 model matrix of the image center, in column-major order.
+   * @param modelMatrixOffset Index of the first element of the model matrix in the array.
+   * @param halfExtentX Half the width of the image.
+   * @param halfExtentZ Half the height of the image.
+   * @param objColor The tint of the frame.
+   * @param simple Whether to draw the frame unlit, for images that are small on screen.
+   */
+  public void add(
+      float[] modelMatrix,
+      int modelMatrixOffset,
+      float halfExtentX,
+      float halfExtentZ,
+      float[] objColor,
+      boolean simple) {
+    Batch batch = simple ? simpleBatch : litBatch;
+    int slot = batch.size;
+    Matrix.multiplyMM(batch.modelViews, 16 * slot, viewMatrix, 0, modelMatrix, modelMatrixOffset);
+    batch.halfExtents[4 * slot] = halfExtentX;
+    batch.halfExtents[4 * slot + 2] = halfExtentZ;
+    System.arraycopy(objColor, 0, batch.objColors, 4 * slot, 4);
+    instanceCount++;
+    if (++batch.size == instancesPerDraw) {
+      flush(batch);
+    }
+  }
+
+  /** Draws the remaining images. */
+  public void end() {
+    flush(litBatch);
+    flush(simpleBatch);
+    if (boundBatch != null) {
+      unbindState();
+    }
+  }
+
+  /** Returns the number of draw calls of the last frame. */
+  public int getDrawCallCount() {
+    return drawCallCount;
+  }
+
+  /** Returns the number of images drawn in the last frame. */
+  public int getInstanceCount() {
+    return instanceCount;
+  }
+
+  private void createBatch(Context context, Batch batch, boolean unlit) throws IOException {
+    Map<String, Integer> defineValuesMap = new TreeMap<>();
+    defineValuesMap.put("MAX_INSTANCES", MAX_INSTANCES_PER_DRAW);
+    defineValuesMap.put("UNLIT", unlit ? 1 : 0);
+    batch.program =
+        resourceCache.acquireProgram(
+            context, VERTEX_SHADER_NAME, FRAGMENT_SHADER_NAME, defineValuesMap);
+
+    int programId = batch.program.programId;
+    batch.projectionUniform = GLES20.glGetUniformLocation(programId, "u_Projection");
+    batch.lightDirectionUniform = GLES20.glGetUniformLocation(programId, "u_LightDirection");
+    batch.modelViewUniform = GLES20.glGetUniformLocation(programId, "u_ModelView");
+    batch.halfExtentUniform = GLES20.glGetUniformLocation(programId, "u_HalfExtent");
+    batch.objColorUniform = GLES20.glGetUniformLocation(programId, "u_ObjColor");
+    batch.textureUniform = GLES20.glGetUniformLocation(programId, "u_Texture");
+    batch.materialParametersUniform =
+        GLES20.glGetUniformLocation(programId, "u_MaterialParameters");
+    batch.colorCorrectionParameterUniform =
+        GLES20.glGetUniformLocation(programId, "u_ColorCorrectionParameters");
+    batch.positionAttribute = GLES20.glGetAttribLocation(programId, "a_Position");
+    batch.normalAttribute = GLES20.glGetAttribLocation(programId, "a_Normal");
+    batch.texCoordAttribute = GLES20.glGetAttribLocation(programId, "a_TexCoord");
+    batch.cornerAttribute = GLES20.glGetAttribLocation(programId, "a_Corner");
+    GlValidation.check(TAG, "Program parameters");
+  }
+
+  private void flush(Batch batch) {
+    if (batch.size == 0) {
+      return;
+    }
+    if (boundBatch != batch) {
+      bindState(batch);
+    }
+    GLES20.glUniformMatrix4fv(batch.modelViewUniform, batch.size, false, batch.modelViews, 0);
+    GLES20.glUniform4fv(batch.halfExtentUniform, batch.size, batch.halfExtents, 0);
+    GLES20.glUniform4fv(batch.objColorUniform, batch.size, batch.objColors, 0);
+    // The instances are laid out one after the other, so the batch is a prefix of the indices.
+    GLES20.glDrawElements(
+        GLES20.GL_TRIANGLES, batch.size * indicesPerInstance, GLES20.GL_UNSIGNED_SHORT, 0);
+    drawCallCount++;
+    batch.size = 0;
+  }
+
+  private void bindState(Batch batch) {
+    if (boundBatch != null) {
+      // The programs may use different attribute locations.
+      unbindState();
+    }
+    GlState.useProgram(batch.program.programId);
+
+    // Uniforms a program does not have are at location -1, which glUniform ignores.
+    GLES20.glUniformMatrix4fv(batch.projectionUniform, 1, false, projectionMatrix, 0);
+    GLES20.glUniform4fv(batch.lightDirectionUniform, 1, LIGHT_DIRECTION, 0);
+    GLES20.glUniform4fv(batch.colorCorrectionParameterUniform, 1, colorCorrectionRgba, 0);
+    GLES20.glUniform4f(
+        batch.materialParametersUniform, AMBIENT, DIFFUSE, SPECULAR, SPECULAR_POWER);
+
+    GlState.activeTexture(GLES20.GL_TEXTURE0);
+    GlState.bindTexture(GLES20.GL_TEXTURE_2D, texture.textureId);
+    GLES20.glUniform1i(batch.textureUniform, 0);
+
+    GlState.bindVertexArray(0);
+    GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+    bindAttribute(batch.positionAttribute, 3, POSITION_OFFSET);
+    bindAttribute(batch.normalAttribute, 3, NORMAL_OFFSET);
+    bindAttribute(batch.texCoordAttribute, 2, TEX_COORD_OFFSET);
+    bindAttribute(batch.cornerAttribute, 3, CORNER_OFFSET);
+
+    // Alpha blending with the depth mask enabled. Textures are loaded with premultiplied alpha.
+    GlState.setEnabled(GLES20.GL_DEPTH_TEST, true);
+    GlState.setEnabled(GLES20.GL_BLEND, true);
+    GlState.depthMask(true);
+    GlState.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+
+    GlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+    boundBatch = batch;
+  }
+
+  /** Points an attribute at the vertex buffer, unless the program does not use it. */
+  private static void bindAttribute(int attribute, int size, int offset) {
+    if (attribute < 0) {
+      return;
+    }
+    GLES20.glVertexAttribPointer(
+        attribute, size, GLES20.GL_FLOAT, false, STRIDE, offset * BYTES_PER_FLOAT);
+    GlState.enableVertexAttribArray(attribute);
+  }
+
+  private void unbindState() {
+    unbindAttribute(boundBatch.positionAttribute);
+    unbindAttribute(boundBatch.normalAttribute);
+    unbindAttribute(boundBatch.texCoordAttribute);
+    unbindAttribute(boundBatch.cornerAttribute);
+    boundBatch = null;
+
+    GlValidation.check(TAG, "After draw");
+  }
+
+  private static void unbindAttribute(int attribute) {
+    if (attribute >= 0) {
+      GlState.disableVertexAttribArray(attribute);
+    }
+  }
+
+  /**
+   * Merges the corner meshes into one interleaved mesh, with the corner direction in every vertex,
+   * and repeats it for every instance of a batch.
+   */
+  private void loadCornerMeshes(Context context) throws IOException {
+    long startNanos = SystemClock.elapsedRealtimeNanos();
+    BinaryMesh[] corners = new BinaryMesh[CORNER_MESH_NAMES.length];
+    int verticesPerInstance = 0;
+    indicesPerInstance = 0;
+    for (int i = 0; i < corners.length; ++i) {
+      corners[i] = BinaryMesh.map(context, CORNER_MESH_NAMES[i]);
+      System.arraycopy(corners[i].bounds, 0, cornerBounds[i], 0, cornerBounds[i].length);
+      verticesPerInstance += corners[i].vertexCount;
+      indicesPerInstance += corners[i].indexCount;
+    }
+    instancesPerDraw = Math.min(MAX_INSTANCES_PER_DRAW, MAX_VERTICES / verticesPerInstance);
+
+    FloatBuffer vertices =
+        ByteBuffer.allocateDirect(
+                instancesPerDraw * verticesPerInstance * FLOATS_PER_VERTEX * BYTES_PER_FLOAT)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    ShortBuffer indices =
+        ByteBuffer.allocateDirect(instancesPerDraw * indicesPerInstance * 2)
+            .order(ByteOrder.nativeOrder())
+            .asShortBuffer();
+
+    for (int instance = 0; instance < instancesPerDraw; ++instance) {
+      for (int i = 0; i < corners.length; ++i) {
+        int firstVertex = vertices.position() / FLOATS_PER_VERTEX;
+        // The mesh vertices already hold position, normal and texture coordinates, in this order.
+        FloatBuffer cornerVertices = corners[i].vertices.asFloatBuffer();
+        for (int v = 0; v < corners[i].vertexCount; ++v) {
+          for (int c = 0; c < BinaryMesh.FLOATS_PER_VERTEX; ++c) {
+            vertices.put(cornerVertices.get(BinaryMesh.FLOATS_PER_VERTEX * v + c));
+          }
+          vertices.put(CORNER_DIRECTIONS[i][0]).put(CORNER_DIRECTIONS[i][1]).put(instance);
+        }
+        ShortBuffer cornerIndices = corners[i].indices.asShortBuffer();
+        while (cornerIndices.hasRemaining()) {
+          indices.put((short) (firstVertex + (cornerIndices.get() & 0xFFFF)));
+        }
+      }
+    }
+    vertices.rewind();
+    indices.rewind();
+
+    int[] buffers = new int[2];
+    GLES20.glGenBuffers(2, buffers, 0);
+    vertexBufferId = buffers[0];
+    indexBufferId = buffers[1];
+
+    // The element array buffer binding is part of the vertex array object.
+    GlState.bindVertexArray(0);
+    GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER,
+        BYTES_PER_FLOAT * vertices.limit(),
+        vertices,
+        GLES20.GL_STATIC_DRAW);
+
+    GlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ELEMENT_ARRAY_BUFFER, 2 * indices.limit(), indices, GLES20.GL_STATIC_DRAW);
+
+    GlValidation.check(TAG, "Corner mesh load");
+    Log.d(TAG, "Loaded corner meshes in "
+        + (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000 + " us");
+  }
+}
@@ -33,8 +33,28 @@ public final class SnackbarHelper {
   private String lastMessage = "";
   private View snackbarView;
 
+  /** A snackbar to show. A new instance is created for every request. */
+  private static final class Message {
+    final Activity activity;
+    final String text;
+    final DismissBehavior dismissBehavior;
+
+    Message(Activity activity, String text, DismissBehavior dismissBehavior) {
+      this.activity = activity;
+      this.text = text;
+      this.dismissBehavior = dismissBehavior;
+    }
+  }
+
+  // The snackbar that should be showing, or null if none should.
+  private final UiDispatcher.Slot<Message> messageSlot;
+
+  public SnackbarHelper(UiDispatcher uiDispatcher) {
+    messageSlot = uiDispatcher.createSlot(null, this::applyMessage);
+  }
+
   public boolean isShowing() {
-    return messageSnackbar != null;
+    return messageSlot.get() != null;
   }
 
   /** Shows a snackbar with a given message. */
@@ -67,15 +87,7 @@ public final class SnackbarHelper {
       return;
     }
     lastMessage = "";
-    Snackbar messageSnackbarToHide = messageSnackbar;
-    messageSnackbar = null;
-    activity.runOnUiThread(
-        new Runnable() {
-          @Override
-          public void run() {
-            messageSnackbarToHide.dismiss();
-          }
-        });
+    messageSlot.set(null);
   }
 
   public void setMaxLines(int lines) {
@@ -96,47 +108,55 @@ public final class SnackbarHelper {
     this.snackbarView = snackbarView;
   }
 
-  private void show(
-      final Activity activity, final String message, final DismissBehavior dismissBehavior) {
-    activity.runOnUiThread(
-        new Runnable() {
-          @Override
-          public void run() {
-            messageSnackbar =
-                Snackbar.make(
-                    snackbarView == null
-                        ? activity.findViewById(android.R.id.content)
-                        : snackbarView,
-                    message,
-                    Snackbar.LENGTH_INDEFINITE);
-            messageSnackbar.getView().setBackgroundColor(BACKGROUND_COLOR);
-            if (dismissBehavior != DismissBehavior.HIDE) {
-              messageSnackbar.setAction(
-                  "Dismiss",
-                  new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
-                      messageSnackbar.dismiss();
-                    }
-                  });
-              if (dismissBehavior == DismissBehavior.FINISH) {
-                messageSnackbar.addCallback(
-                    new BaseTransientBottomBar.BaseCallback<Snackbar>() {
-                      @Override
-                      public void onDismissed(Snackbar transientBottomBar, int event) {
-                        super.onDismissed(transientBottomBar, event);
-                        activity.finish();
-                      }
-                    });
-              }
+  private void show(Activity activity, String text, DismissBehavior dismissBehavior) {
+    messageSlot.set(new Message(activity, text, dismissBehavior));
+  }
+
+  /** Replaces the showing snackbar, if any, with the latest one. Called on the main thread. */
+  private void applyMessage(Message message) {
+    if (messageSnackbar != null) {
+      messageSnackbar.dismiss();
+      messageSnackbar = null;
+    }
+    if (message == null) {
+      return;
+    }
+
+    final Activity activity = message.activity;
+    messageSnackbar =
+        Snackbar.make(
+            snackbarView == null
+                ? activity.findViewById(android.R.id.content)
+                : snackbarView,
+            message.text,
+            Snackbar.LENGTH_INDEFINITE);
+    messageSnackbar.getView().setBackgroundColor(BACKGROUND_COLOR);
+    if (message.dismissBehavior != DismissBehavior.HIDE) {
+      final Snackbar snackbar = messageSnackbar;
+      messageSnackbar.setAction(
+          "Dismiss",
+          new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+              snackbar.dismiss();
             }
-            ((TextView)
-                    messageSnackbar
-                        .getView()
-                        .findViewById(com.google.android.material.R.id.snackbar_text))
-                .setMaxLines(maxLines);
-            messageSnackbar.show();
-          }
-        });
+          });
+      if (message.dismissBehavior == DismissBehavior.FINISH) {
+        messageSnackbar.addCallback(
+            new BaseTransientBottomBar.BaseCallback<Snackbar>() {
+              @Override
+              public void onDismissed(Snackbar transientBottomBar, int event) {
+                super.onDismissed(transientBottomBar, event);
+                activity.finish();
+              }
+            });
+      }
+    }
+    ((TextView)
+            messageSnackbar
+                .getView()
+                .findViewById(com.google.android.material.R.id.snackbar_text))
+        .setMaxLines(maxLines);
+    messageSnackbar.show();
   }
 }
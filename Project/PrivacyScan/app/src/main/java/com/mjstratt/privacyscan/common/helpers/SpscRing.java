@@ -0,0 +1,126 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, lock-free ring of preallocated event slots between exactly one producer thread and one
+ * consumer thread.
+ *
+ * <p>The producer fills slots in place instead of allocating events:
+ *
+ * <pre>{@code
+ * Event event = ring.claim();
+ * if (event != null) {
+ *   event.value = ...;
+ *   ring.publish();
+ * }
+ * }</pre>
+ *
+ * and the consumer handles every published event in one pass with {@link #drain(Consumer)}. Writes
+ * to a slot before {@link #publish()} are visible to the consumer when it reads that slot, and the
+ * slot is only reused after the consumer has returned from handling it.
+ */
+public final class SpscRing<T> {
+
+  /** Creates the preallocated slots. */
+  public interface Factory<T> {
+    T create();
+  }
+
+  /** Handles a published event. The slot must not be kept after returning. */
+  public interface Consumer<T> {
+    void accept(T event);
+  }
+
+  private final Object[] slots;
+  private final int mask;
+
+  // Number of events published by the producer, and consumed by the consumer.
+  private final AtomicLong published = new AtomicLong();
+  private final AtomicLong consumed = new AtomicLong();
+
+  // Producer thread only: the consumed count last read, to avoid reading it on every claim.
+  private long cachedConsumed = 0;
+  private boolean claimed = false;
+
+  /**
+   * @param capacity The number of slots, rounded up to a power of two.
+   * @param factory Creates each slot.
+   */
+  public SpscRing(int capacity, Factory<T> factory) {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    slots = new Object[size];
+    mask = size - 1;
+    for (int i = 0; i < size; ++i) {
+      slots[i] = factory.create();
+    }
+  }
+
+  /**
+   * Returns the next free slot to fill, or {@code null} if the ring is full. Producer thread only.
+   * Calling it again before {@link #publish()} returns the same slot.
+   */
+  @SuppressWarnings("unchecked")
+  public T claim() {
+    long next = published.get();
+    if (next - cachedConsumed >= slots.length) {
+      cachedConsumed = consumed.get();
+      if (next - cachedConsumed >= slots.length) {
+        return null;
+      }
+    }
+    claimed = true;
+    return (T) slots[(int) next & mask];
+  }
+
+  /** Publishes the slot returned by the last {@link #claim()}. Producer thread only. */
+  public void publish() {
+    if (!claimed) {
+      throw new IllegalStateException("publish() without a claimed slot");
+    }
+    claimed = false;
+    published.lazySet(published.get() + 1);
+  }
+
+  /**
+   * Passes every event published so far to the consumer, in order, and frees their slots.
+   * Consumer thread only.
+   *
+   * @return The number of events drained.
+   */
+  @SuppressWarnings("unchecked")
+  public int drain(Consumer<T> consumer) {
+    long first = consumed.get();
+    long end = published.get();
+    for (long i = first; i < end; ++i) {
+      consumer.accept((T) slots[(int) i & mask]);
+    }
+    consumed.lazySet(end);
+    return (int) (end - first);
+  }
+
+  /** Returns whether there are published events that have not been drained. Any thread. */
+  public boolean isEmpty() {
+    return published.get() == consumed.get();
+  }
+
+  /** Returns the number of slots. */
+  public int capacity() {
+    return slots.length;
+  }
+}
@@ -38,11 +38,13 @@ public final class TrackingStateHelper {
   private static final int ANDROID_S_SDK_VERSION = 31;
 
   private final Activity activity;
+  private final UiDispatcher.Slot<Boolean> keepScreenOn;
 
   private TrackingState previousTrackingState;
 
-  public TrackingStateHelper(Activity activity) {
+  public TrackingStateHelper(Activity activity, UiDispatcher uiDispatcher) {
     this.activity = activity;
+    this.keepScreenOn = uiDispatcher.createSlot(null, this::applyKeepScreenOn);
   }
 
   /** Keep the screen unlocked while tracking, but allow it to lock when tracking stops. */
@@ -55,16 +57,22 @@ public final class TrackingStateHelper {
     switch (trackingState) {
       case PAUSED:
       case STOPPED:
-        activity.runOnUiThread(
-            () -> activity.getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON));
+        keepScreenOn.set(Boolean.FALSE);
         break;
       case TRACKING:
-        activity.runOnUiThread(
-            () -> activity.getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON));
+        keepScreenOn.set(Boolean.TRUE);
         break;
     }
   }
 
+  private void applyKeepScreenOn(Boolean enabled) {
+    if (enabled) {
+      activity.getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+    } else {
+      activity.getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+    }
+  }
+
   public static String getTrackingFailureReasonString(Camera camera) {
     TrackingFailureReason reason = camera.getTrackingFailureReason();
     switch (reason) {
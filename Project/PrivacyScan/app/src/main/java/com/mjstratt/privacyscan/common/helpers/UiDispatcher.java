@@ -0,0 +1,181 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Applies UI state written from other threads on the main thread, at most once per display frame.
+ *
+ * <p>Each piece of UI state is a {@link Slot} holding the latest desired value. Any thread may set
+ * a slot; the value is applied in the next {@link Choreographer} frame callback, and values that
+ * were overwritten before that frame are never applied. Setting a slot to the value it already
+ * holds does nothing, so producers can write their state on every frame without cost.
+ *
+ * <p>Events that must all be handled, rather than only the latest, go through a {@link Channel},
+ * a {@link SpscRing} that is drained in the same frame callback.
+ *
+ * <p>Slots and channels must be created on the main thread, before they are used.
+ */
+public final class UiDispatcher implements Choreographer.FrameCallback {
+
+  /** Applies a value of a slot to the UI. Called on the main thread. */
+  public interface Applier<T> {
+    void apply(T value);
+  }
+
+  /** Latest desired value of a piece of UI state. */
+  public final class Slot<T> {
+    private final Applier<T> applier;
+    private final AtomicReference<T> latest;
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+    // Main thread only.
+    private T applied;
+
+    private Slot(T initialValue, Applier<T> applier) {
+      this.applier = applier;
+      this.latest = new AtomicReference<>(initialValue);
+      this.applied = initialValue;
+    }
+
+    /**
+     * Sets the value to apply in the next frame. Values are compared by identity, so use shared
+     * instances (e.g. boxed constants) for state, and new instances for events that must be
+     * applied even if they are equal to the previous one. Safe to call from any thread.
+     */
+    public void set(T value) {
+      if (latest.getAndSet(value) == value) {
+        return;
+      }
+      if (!dirty.getAndSet(true)) {
+        scheduleFrame();
+      }
+    }
+
+    /** Returns the latest value set, which may not have been applied yet. */
+    public T get() {
+      return latest.get();
+    }
+
+    private void applyIfChanged() {
+      if (!dirty.getAndSet(false)) {
+        return;
+      }
+      T value = latest.get();
+      if (value != applied) {
+        applied = value;
+        applier.apply(value);
+      }
+    }
+  }
+
+  /** Ring of events from one producer thread, drained on the main thread once per frame. */
+  public final class Channel<T> {
+    private final SpscRing<T> ring;
+    private final SpscRing.Consumer<T> consumer;
+
+    private Channel(SpscRing<T> ring, SpscRing.Consumer<T> consumer) {
+      this.ring = ring;
+      this.consumer = consumer;
+    }
+
+    /** See {@link SpscRing#claim()}. Producer thread only. */
+    public T claim() {
+      return ring.claim();
+    }
+
+    /** Publishes the claimed event, to be handled in the next frame. Producer thread only. */
+    public void publish() {
+      ring.publish();
+      scheduleFrame();
+    }
+
+    private void drain() {
+      ring.drain(consumer);
+    }
+  }
+
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final Choreographer choreographer;
+  private final ArrayList<Slot<?>> slots = new ArrayList<>();
+  private final ArrayList<Channel<?>> channels = new ArrayList<>();
+  private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+  private final Runnable postFrameCallback = this::postFrameCallback;
+
+  /** Must be created on the main thread. */
+  public UiDispatcher() {
+    choreographer = Choreographer.getInstance();
+  }
+
+  /**
+   * Creates a slot. Must be called on the main thread.
+   *
+   * @param initialValue The value the UI is in now, which is not applied.
+   * @param applier Applies new values on the main thread.
+   */
+  public <T> Slot<T> createSlot(T initialValue, Applier<T> applier) {
+    Slot<T> slot = new Slot<>(initialValue, applier);
+    slots.add(slot);
+    return slot;
+  }
+
+  /**
+   * Creates a channel. Must be called on the main thread.
+   *
+   * @param capacity The number of preallocated events. Events are dropped while the ring is full.
+   * @param factory Creates the preallocated events.
+   * @param consumer Handles each event on the main thread.
+   */
+  public <T> Channel<T> createChannel(
+      int capacity, SpscRing.Factory<T> factory, SpscRing.Consumer<T> consumer) {
+    Channel<T> channel = new Channel<>(new SpscRing<>(capacity, factory), consumer);
+    channels.add(channel);
+    return channel;
+  }
+
+  @Override
+  public void doFrame(long frameTimeNanos) {
+    // Clear first, so that values set while applying schedule the next frame.
+    frameScheduled.set(false);
+    for (int i = 0; i < slots.size(); ++i) {
+      slots.get(i).applyIfChanged();
+    }
+    for (int i = 0; i < channels.size(); ++i) {
+      channels.get(i).drain();
+    }
+  }
+
+  private void scheduleFrame() {
+    if (!frameScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    if (Looper.myLooper() == Looper.getMainLooper()) {
+      postFrameCallback();
+    } else {
+      mainHandler.post(postFrameCallback);
+    }
+  }
+
+  private void postFrameCallback() {
+    choreographer.postFrameCallback(this);
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.google.ar.core.Config;
+
+/**
+ * Manages the session update mode setting and shared preferences. When non-blocking updates are
+ * enabled, {@code Session.update()} returns immediately with the latest camera image instead of
+ * waiting for a new one, so rendering is not throttled to the camera frame rate.
+ */
+public class UpdateModeSettings {
+  public static final String SHARED_PREFERENCES_ID = "SHARED_PREFERENCES_UPDATE_MODE_OPTIONS";
+  public static final String SHARED_PREFERENCES_LATEST_CAMERA_IMAGE_ENABLED =
+      "latest_camera_image_enabled";
+  private boolean latestCameraImageEnabled = false;
+  private SharedPreferences sharedPreferences;
+
+  /** Initializes the current settings based on the saved value. */
+  public void onCreate(Context context) {
+    sharedPreferences = context.getSharedPreferences(SHARED_PREFERENCES_ID, Context.MODE_PRIVATE);
+    latestCameraImageEnabled =
+        sharedPreferences.getBoolean(SHARED_PREFERENCES_LATEST_CAMERA_IMAGE_ENABLED, false);
+  }
+
+  /** Retrieves whether the session should update with {@code LATEST_CAMERA_IMAGE}. */
+  public boolean isLatestCameraImageEnabled() {
+    return latestCameraImageEnabled;
+  }
+
+  /** Sets whether the session should update with {@code LATEST_CAMERA_IMAGE}, and stores it. */
+  public void setLatestCameraImageEnabled(boolean enable) {
+    if (enable == latestCameraImageEnabled) {
+      return; // No change.
+    }
+
+    // Updates the stored default settings.
+    latestCameraImageEnabled = enable;
+    SharedPreferences.Editor editor = sharedPreferences.edit();
+    editor.putBoolean(SHARED_PREFERENCES_LATEST_CAMERA_IMAGE_ENABLED, latestCameraImageEnabled);
+    editor.apply();
+  }
+
+  /** Returns the update mode to configure the session with. */
+  public Config.UpdateMode getUpdateMode() {
+    return latestCameraImageEnabled
+        ? Config.UpdateMode.LATEST_CAMERA_IMAGE
+        : Config.UpdateMode.BLOCKING;
+  }
+}
@@ -82,7 +82,7 @@ public class BackgroundRenderer {
     GLES20.glGenTextures(1, textures, 0);
     cameraTextureId = textures[0];
     int textureTarget = GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
-    GLES20.glBindTexture(textureTarget, cameraTextureId);
+    GlState.bindTexture(textureTarget, cameraTextureId);
     GLES20.glTexParameteri(textureTarget, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
     GLES20.glTexParameteri(textureTarget, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
     GLES20.glTexParameteri(textureTarget, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
@@ -106,45 +106,30 @@ public class BackgroundRenderer {
 
     // Load render camera feed shader.
     {
-      int vertexShader =
-          ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, CAMERA_VERTEX_SHADER_NAME);
-      int fragmentShader =
-          ShaderUtil.loadGLShader(
-              TAG, context, GLES20.GL_FRAGMENT_SHADER, CAMERA_FRAGMENT_SHADER_NAME);
-
-      cameraProgram = GLES20.glCreateProgram();
-      GLES20.glAttachShader(cameraProgram, vertexShader);
-      GLES20.glAttachShader(cameraProgram, fragmentShader);
-      GLES20.glLinkProgram(cameraProgram);
-      GLES20.glUseProgram(cameraProgram);
+      cameraProgram =
+          ProgramBinaryCache.loadProgram(
+              context, CAMERA_VERTEX_SHADER_NAME, CAMERA_FRAGMENT_SHADER_NAME);
+      GlState.useProgram(cameraProgram);
       cameraPositionAttrib = GLES20.glGetAttribLocation(cameraProgram, "a_Position");
       cameraTexCoordAttrib = GLES20.glGetAttribLocation(cameraProgram, "a_TexCoord");
-      ShaderUtil.checkGLError(TAG, "Program creation");
+      GlValidation.check(TAG, "Program creation");
 
       cameraTextureUniform = GLES20.glGetUniformLocation(cameraProgram, "sTexture");
-      ShaderUtil.checkGLError(TAG, "Program parameters");
+      GlValidation.check(TAG, "Program parameters");
     }
 
     // Load render depth map shader.
     {
-      int vertexShader =
-          ShaderUtil.loadGLShader(
-              TAG, context, GLES20.GL_VERTEX_SHADER, DEPTH_VISUALIZER_VERTEX_SHADER_NAME);
-      int fragmentShader =
-          ShaderUtil.loadGLShader(
-              TAG, context, GLES20.GL_FRAGMENT_SHADER, DEPTH_VISUALIZER_FRAGMENT_SHADER_NAME);
-
-      depthProgram = GLES20.glCreateProgram();
-      GLES20.glAttachShader(depthProgram, vertexShader);
-      GLES20.glAttachShader(depthProgram, fragmentShader);
-      GLES20.glLinkProgram(depthProgram);
-      GLES20.glUseProgram(depthProgram);
+      depthProgram =
+          ProgramBinaryCache.loadProgram(
+              context, DEPTH_VISUALIZER_VERTEX_SHADER_NAME, DEPTH_VISUALIZER_FRAGMENT_SHADER_NAME);
+      GlState.useProgram(depthProgram);
       depthPositionAttrib = GLES20.glGetAttribLocation(depthProgram, "a_Position");
       depthTexCoordAttrib = GLES20.glGetAttribLocation(depthProgram, "a_TexCoord");
-      ShaderUtil.checkGLError(TAG, "Program creation");
+      GlValidation.check(TAG, "Program creation");
 
       depthTextureUniform = GLES20.glGetUniformLocation(depthProgram, "u_DepthTexture");
-      ShaderUtil.checkGLError(TAG, "Program parameters");
+      GlValidation.check(TAG, "Program parameters");
     }
 
     this.depthTextureId = depthTextureId;
@@ -252,14 +237,19 @@ public class BackgroundRenderer {
 
     // No need to test or write depth, the screen quad has arbitrary depth, and is expected
     // to be drawn first.
-    GLES20.glDisable(GLES20.GL_DEPTH_TEST);
-    GLES20.glDepthMask(false);
+    GlState.setEnabled(GLES20.GL_DEPTH_TEST, false);
+    GlState.depthMask(false);
+    GlState.setEnabled(GLES20.GL_BLEND, false);
 
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    // The quad is drawn from client-side arrays.
+    GlState.bindVertexArray(0);
+    GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+    GlState.activeTexture(GLES20.GL_TEXTURE0);
 
     if (debugShowDepthMap) {
-      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, depthTextureId);
-      GLES20.glUseProgram(depthProgram);
+      GlState.bindTexture(GLES20.GL_TEXTURE_2D, depthTextureId);
+      GlState.useProgram(depthProgram);
       GLES20.glUniform1i(depthTextureUniform, 0);
 
       // Set the vertex positions and texture coordinates.
@@ -267,11 +257,11 @@ public class BackgroundRenderer {
           depthPositionAttrib, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadCoords);
       GLES20.glVertexAttribPointer(
           depthTexCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoords);
-      GLES20.glEnableVertexAttribArray(depthPositionAttrib);
-      GLES20.glEnableVertexAttribArray(depthTexCoordAttrib);
+      GlState.enableVertexAttribArray(depthPositionAttrib);
+      GlState.enableVertexAttribArray(depthTexCoordAttrib);
     } else {
-      GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, cameraTextureId);
-      GLES20.glUseProgram(cameraProgram);
+      GlState.bindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, cameraTextureId);
+      GlState.useProgram(cameraProgram);
       GLES20.glUniform1i(cameraTextureUniform, 0);
 
       // Set the vertex positions and texture coordinates.
@@ -279,26 +269,24 @@ public class BackgroundRenderer {
           cameraPositionAttrib, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadCoords);
       GLES20.glVertexAttribPointer(
           cameraTexCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoords);
-      GLES20.glEnableVertexAttribArray(cameraPositionAttrib);
-      GLES20.glEnableVertexAttribArray(cameraTexCoordAttrib);
+      GlState.enableVertexAttribArray(cameraPositionAttrib);
+      GlState.enableVertexAttribArray(cameraTexCoordAttrib);
     }
 
     GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 
     // Disable vertex arrays
     if (debugShowDepthMap) {
-      GLES20.glDisableVertexAttribArray(depthPositionAttrib);
-      GLES20.glDisableVertexAttribArray(depthTexCoordAttrib);
+      GlState.disableVertexAttribArray(depthPositionAttrib);
+      GlState.disableVertexAttribArray(depthTexCoordAttrib);
     } else {
-      GLES20.glDisableVertexAttribArray(cameraPositionAttrib);
-      GLES20.glDisableVertexAttribArray(cameraTexCoordAttrib);
+      GlState.disableVertexAttribArray(cameraPositionAttrib);
+      GlState.disableVertexAttribArray(cameraTexCoordAttrib);
     }
 
-    // Restore the depth state for further drawing.
-    GLES20.glDepthMask(true);
-    GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+    // The depth state is left as it is; renderers drawn after this one set what they need.
 
-    ShaderUtil.checkGLError(TAG, "BackgroundRendererDraw");
+    GlValidation.check(TAG, "BackgroundRendererDraw");
   }
 
   /**
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A mesh asset compiled from an OBJ file at build time, memory-mapped from the APK.
+ *
+ * <p>The file holds a header with the vertex and index counts and the bounds of the mesh, the
+ * interleaved vertices (position xyz, normal xyz, texture coordinates uv) and short triangle
+ * indices, so the vertex and index data can be passed to {@code glBufferData} as they are. Mesh
+ * assets are stored uncompressed in the APK, which is what allows mapping them.
+ */
+public class BinaryMesh {
+  private static final int MAGIC = 0x48534D50; // "PMSH"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 40;
+
+  /** Floats per vertex: position xyz, normal xyz, texture coordinates uv. */
+  public static final int FLOATS_PER_VERTEX = 8;
+  /** Bytes between consecutive vertices. */
+  public static final int STRIDE = 4 * FLOATS_PER_VERTEX;
+  /** Byte offsets of the attributes within a vertex. */
+  public static final int POSITION_OFFSET = 0;
+  public static final int NORMAL_OFFSET = 12;
+  public static final int TEX_COORD_OFFSET = 24;
+
+  public final int vertexCount;
+  public final int indexCount;
+  /** Bounds of the positions: min xyz, max xyz. */
+  public final float[] bounds = new float[6];
+  /** The interleaved vertices, {@code vertexCount * STRIDE} bytes. */
+  public final ByteBuffer vertices;
+  /** The short indices, {@code indexCount * 2} bytes. */
+  public final ByteBuffer indices;
+
+  private BinaryMesh(ByteBuffer buffer) throws IOException {
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      throw new IOException("Not a version " + VERSION + " mesh");
+    }
+    vertexCount = buffer.getInt(8);
+    indexCount = buffer.getInt(12);
+    for (int i = 0; i < bounds.length; ++i) {
+      bounds[i] = buffer.getFloat(16 + 4 * i);
+    }
+    int verticesEnd = HEADER_SIZE + vertexCount * STRIDE;
+    int indicesEnd = verticesEnd + 2 * indexCount;
+    if (buffer.capacity() < indicesEnd) {
+      throw new IOException("Truncated mesh");
+    }
+    vertices = slice(buffer, HEADER_SIZE, verticesEnd);
+    indices = slice(buffer, verticesEnd, indicesEnd);
+  }
+
+  /**
+   * Maps a mesh asset.
+   *
+   * @throws java.io.FileNotFoundException If there is no such asset.
+   * @throws IOException If the asset is compressed or not a mesh.
+   */
+  public static BinaryMesh map(Context context, String assetName) throws IOException {
+    try (AssetFileDescriptor fd = context.getAssets().openFd(assetName);
+        FileInputStream inputStream = fd.createInputStream();
+        FileChannel channel = inputStream.getChannel()) {
+      // The mapping stays valid after the channel is closed.
+      MappedByteBuffer buffer =
+          channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+      return new BinaryMesh(buffer);
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(start);
+    duplicate.limit(end);
+    return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
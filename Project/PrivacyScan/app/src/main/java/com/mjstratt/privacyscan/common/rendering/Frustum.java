@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import android.opengl.Matrix;
+
+/**
+ * The view frustum of a camera, as six world-space planes, for cheap visibility tests.
+ *
+ * <p>The planes are taken from the rows of the view-projection matrix (Gribb and Hartmann), so
+ * updating them for a new frame is a matrix product and a few additions. A box is tested as a
+ * whole against each plane; boxes that straddle two planes outside a frustum corner are reported
+ * as visible, which only costs a draw.
+ */
+public class Frustum {
+  private static final int PLANE_COUNT = 6;
+
+  // Planes as (a, b, c, d), with the normal (a, b, c) pointing into the frustum.
+  private final float[] planes = new float[4 * PLANE_COUNT];
+  private final float[] viewProjection = new float[16];
+
+  /**
+   * Updates the planes for a camera.
+   *
+   * @param viewMatrix A 4x4 view matrix, in column-major order.
+   * @param projectionMatrix A 4x4 projection matrix, in column-major order.
+   */
+  public void set(float[] viewMatrix, float[] projectionMatrix) {
+    Matrix.multiplyMM(viewProjection, 0, projectionMatrix, 0, viewMatrix, 0);
+    float[] m = viewProjection;
+    for (int i = 0; i < PLANE_COUNT; ++i) {
+      // Left, right, bottom, top, near and far: the last row plus or minus the x, y or z row.
+      int row = i / 2;
+      float sign = (i % 2 == 0) ? 1 : -1;
+      float a = m[3] + sign * m[row];
+      float b = m[7] + sign * m[4 + row];
+      float c = m[11] + sign * m[8 + row];
+      float d = m[15] + sign * m[12 + row];
+      float length = (float) Math.sqrt(a * a + b * b + c * c);
+      planes[4 * i] = a / length;
+      planes[4 * i + 1] = b / length;
+      planes[4 * i + 2] = c / length;
+      planes[4 * i + 3] = d / length;
+    }
+  }
+
+  /**
+   * Returns whether a box may be visible.
+   *
+   * @param modelMatrix The 4x4 matrix of the box space, in column-major order.
+   * @param modelMatrixOffset Index of the first element of the model matrix in the array.
+   * @param bounds The box in its space: min xyz, max xyz.
+   */
+  public boolean intersectsBox(float[] modelMatrix, int modelMatrixOffset, float[] bounds) {
+    float[] m = modelMatrix;
+    int o = modelMatrixOffset;
+    float halfX = 0.5f * (bounds[3] - bounds[0]);
+    float halfY = 0.5f * (bounds[4] - bounds[1]);
+    float halfZ = 0.5f * (bounds[5] - bounds[2]);
+    float localX = 0.5f * (bounds[3] + bounds[0]);
+    float localY = 0.5f * (bounds[4] + bounds[1]);
+    float localZ = 0.5f * (bounds[5] + bounds[2]);
+    // World-space center of the box.
+    float centerX = m[o] * localX + m[o + 4] * localY + m[o + 8] * localZ + m[o + 12];
+    float centerY = m[o + 1] * localX + m[o + 5] * localY + m[o + 9] * localZ + m[o + 13];
+    float centerZ = m[o + 2] * localX + m[o + 6] * localY + m[o + 10] * localZ + m[o + 14];
+
+    for (int i = 0; i < PLANE_COUNT; ++i) {
+      float a = planes[4 * i];
+      float b = planes[4 * i + 1];
+      float c = planes[4 * i + 2];
+      float distance = a * centerX + b * centerY + c * centerZ + planes[4 * i + 3];
+      // Extent of the box along the plane normal, from the projections of its world-space axes.
+      float radius =
+          halfX * Math.abs(a * m[o] + b * m[o + 1] + c * m[o + 2])
+              + halfY * Math.abs(a * m[o + 4] + b * m[o + 5] + c * m[o + 6])
+              + halfZ * Math.abs(a * m[o + 8] + b * m[o + 9] + c * m[o + 10]);
+      if (distance < -radius) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.opengl.GLES20;
+
+/** Chooses the OpenGL ES version to request, and reports what the current context supports. */
+public final class GlCapabilities {
+  private static final String ES_VERSION_PREFIX = "OpenGL ES ";
+
+  private GlCapabilities() {}
+
+  /**
+   * Returns the OpenGL ES client version to create contexts with: 3 if the device supports OpenGL
+   * ES 3.0, otherwise 2. OpenGL ES 3 contexts run the OpenGL ES 2 shaders unchanged.
+   */
+  public static int getClientVersion(Context context) {
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    if (activityManager != null
+        && activityManager.getDeviceConfigurationInfo().reqGlEsVersion >= 0x30000) {
+      return 3;
+    }
+    return 2;
+  }
+
+  /** Returns the major version of the current context. Must be called on the GL thread. */
+  public static int getContextMajorVersion() {
+    // The version string is "OpenGL ES <major>.<minor> <vendor specific>".
+    String version = GLES20.glGetString(GLES20.GL_VERSION);
+    if (version == null || !version.startsWith(ES_VERSION_PREFIX)) {
+      return 2;
+    }
+    int start = ES_VERSION_PREFIX.length();
+    int end = start;
+    while (end < version.length() && Character.isDigit(version.charAt(end))) {
+      end++;
+    }
+    return end > start ? Integer.parseInt(version.substring(start, end)) : 2;
+  }
+
+  /**
+   * Returns whether the current context supports vertex array objects, which are core in OpenGL
+   * ES 3.0. Must be called on the GL thread.
+   */
+  public static boolean hasVertexArrayObjects() {
+    return getContextMajorVersion() >= 3;
+  }
+}
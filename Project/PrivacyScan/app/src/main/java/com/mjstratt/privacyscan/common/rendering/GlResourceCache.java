@@ -0,0 +1,400 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.os.SystemClock;
+import android.util.Log;
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjData;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjUtils;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Shares textures, shader programs and meshes loaded from assets between renderers.
+ *
+ * <p>Resources are keyed by asset name, and programs also by their #define values, so each unique
+ * resource is loaded and uploaded once, however many renderers use it. Every {@code acquire} call
+ * must be paired with a {@link #release(Handle)}; the GL object is deleted when the last user
+ * releases it. Must only be used from the GL thread.
+ */
+public class GlResourceCache {
+  private static final String TAG = GlResourceCache.class.getSimpleName();
+
+  /** A shared, reference-counted GL resource. */
+  public abstract static class Handle {
+    final String key;
+    int refCount = 0;
+
+    private Handle(String key) {
+      this.key = key;
+    }
+
+    abstract void delete();
+  }
+
+  /** A 2D texture, with mipmaps. */
+  public static final class Texture extends Handle {
+    public final int textureId;
+
+    private Texture(String key, int textureId) {
+      super(key);
+      this.textureId = textureId;
+    }
+
+    @Override
+    void delete() {
+      GLES20.glDeleteTextures(1, new int[] {textureId}, 0);
+    }
+  }
+
+  /** A linked shader program. */
+  public static final class Program extends Handle {
+    public final int programId;
+
+    private Program(String key, int programId) {
+      super(key);
+      this.programId = programId;
+    }
+
+    @Override
+    void delete() {
+      GLES20.glDeleteProgram(programId);
+    }
+  }
+
+  /**
+   * A triangle mesh with positions, texture coordinates and normals in one vertex buffer, and
+   * short indices in an index buffer. The attributes are either interleaved, with a non-zero
+   * stride, or stored one after the other, with a stride of 0.
+   */
+  public static final class Mesh extends Handle {
+    public final int vertexBufferId;
+    public final int indexBufferId;
+    public final int indexCount;
+    public final int stride;
+    public final int verticesBaseAddress;
+    public final int texCoordsBaseAddress;
+    public final int normalsBaseAddress;
+
+    private Mesh(
+        String key,
+        int vertexBufferId,
+        int indexBufferId,
+        int indexCount,
+        int stride,
+        int verticesBaseAddress,
+        int texCoordsBaseAddress,
+        int normalsBaseAddress) {
+      super(key);
+      this.vertexBufferId = vertexBufferId;
+      this.indexBufferId = indexBufferId;
+      this.indexCount = indexCount;
+      this.stride = stride;
+      this.verticesBaseAddress = verticesBaseAddress;
+      this.texCoordsBaseAddress = texCoordsBaseAddress;
+      this.normalsBaseAddress = normalsBaseAddress;
+    }
+
+    @Override
+    void delete() {
+      GLES20.glDeleteBuffers(2, new int[] {vertexBufferId, indexBufferId}, 0);
+    }
+  }
+
+  private final Map<String, Handle> handles = new HashMap<>();
+
+  /** Returns the texture loaded from a PNG asset, or from the ETC2 texture compiled from it. */
+  public Texture acquireTexture(Context context, String assetName) throws IOException {
+    String key = "texture:" + assetName;
+    Texture texture = (Texture) handles.get(key);
+    if (texture == null) {
+      texture = new Texture(key, loadTexture(context, assetName));
+      handles.put(key, texture);
+    }
+    texture.refCount++;
+    return texture;
+  }
+
+  /**
+   * Returns the program linked from two shader assets.
+   *
+   * @param defineValuesMap The #define values added to the top of both shaders.
+   */
+  public Program acquireProgram(
+      Context context,
+      String vertexShaderName,
+      String fragmentShaderName,
+      Map<String, Integer> defineValuesMap)
+      throws IOException {
+    // Sorted, so that equal defines always give the same key.
+    Map<String, Integer> sortedDefines = new TreeMap<>(defineValuesMap);
+    String key = "program:" + vertexShaderName + ":" + fragmentShaderName + ":" + sortedDefines;
+    Program program = (Program) handles.get(key);
+    if (program == null) {
+      program =
+          new Program(
+              key, loadProgram(context, vertexShaderName, fragmentShaderName, sortedDefines));
+      handles.put(key, program);
+    }
+    program.refCount++;
+    return program;
+  }
+
+  /**
+   * Returns the mesh of an OBJ asset. The binary mesh compiled from it at build time is used if
+   * there is one, otherwise the OBJ file is parsed.
+   */
+  public Mesh acquireMesh(Context context, String objAssetName) throws IOException {
+    String key = "mesh:" + objAssetName;
+    Mesh mesh = (Mesh) handles.get(key);
+    if (mesh == null) {
+      long startNanos = SystemClock.elapsedRealtimeNanos();
+      String meshAssetName = getBinaryMeshName(objAssetName);
+      try {
+        mesh = loadBinaryMesh(context, key, meshAssetName);
+      } catch (FileNotFoundException e) {
+        Log.w(TAG, "No compiled mesh " + meshAssetName + ", parsing " + objAssetName);
+        mesh = loadObjMesh(context, key, objAssetName);
+      }
+      Log.d(TAG, "Loaded " + objAssetName + " in "
+          + (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000 + " us");
+      handles.put(key, mesh);
+    }
+    mesh.refCount++;
+    return mesh;
+  }
+
+  /** Releases a handle, deleting its GL object if it was the last user. Accepts {@code null}. */
+  public void release(Handle handle) {
+    if (handle == null || handles.get(handle.key) != handle) {
+      return;
+    }
+    if (--handle.refCount == 0) {
+      handles.remove(handle.key);
+      handle.delete();
+      // Deleting a bound object unbinds it, and its name may be reused.
+      GlState.invalidate();
+    }
+  }
+
+  /**
+   * Forgets every resource without deleting it. Call when the GL context was lost, which deleted
+   * the GL objects already, before renderers recreate their resources.
+   */
+  public void clear() {
+    handles.clear();
+  }
+
+  /** Returns the number of unique resources loaded. */
+  public int size() {
+    return handles.size();
+  }
+
+  /**
+   * Loads a texture asset with mipmaps into a new texture, bound to {@code GL_TEXTURE_2D} on
+   * texture unit 0. On OpenGL ES 3 contexts, the ETC2 texture compiled from a PNG asset at build
+   * time is used if there is one; otherwise the PNG is decoded, and the mipmaps made at runtime.
+   */
+  static int loadTexture(Context context, String assetName) throws IOException {
+    long startNanos = SystemClock.elapsedRealtimeNanos();
+    KtxTexture ktxTexture = null;
+    if (GlCapabilities.getContextMajorVersion() >= 3) {
+      try {
+        ktxTexture = KtxTexture.map(context, KtxTexture.getKtxName(assetName));
+      } catch (FileNotFoundException e) {
+        // Not compiled, use the PNG.
+      }
+    }
+
+    int[] textures = new int[1];
+    GlState.activeTexture(GLES20.GL_TEXTURE0);
+    GLES20.glGenTextures(textures.length, textures, 0);
+    GlState.bindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+
+    GLES20.glTexParameteri(
+        GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
+    GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+
+    int byteCount;
+    if (ktxTexture != null) {
+      ktxTexture.upload();
+      byteCount = ktxTexture.getByteCount();
+    } else {
+      Bitmap textureBitmap;
+      try (InputStream inputStream = context.getAssets().open(assetName)) {
+        textureBitmap = BitmapFactory.decodeStream(inputStream);
+      }
+      GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
+      GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+      // The mip chain adds a third to the size of the image.
+      byteCount = textureBitmap.getByteCount() * 4 / 3;
+      textureBitmap.recycle();
+    }
+
+    GlValidation.check(TAG, "Texture loading");
+    Log.d(TAG, "Loaded " + assetName + (ktxTexture != null ? " as ETC2, " : " as RGBA, ")
+        + byteCount + " bytes, in " + (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000
+        + " us");
+    return textures[0];
+  }
+
+  private static int loadProgram(
+      Context context,
+      String vertexShaderName,
+      String fragmentShaderName,
+      Map<String, Integer> defineValuesMap)
+      throws IOException {
+    int program =
+        ProgramBinaryCache.loadProgram(
+            context, vertexShaderName, fragmentShaderName, defineValuesMap);
+    GlValidation.check(TAG, "Program creation");
+    return program;
+  }
+
+  /** Returns the name of the binary mesh compiled from an OBJ asset. */
+  static String getBinaryMeshName(String objAssetName) {
+    return objAssetName.endsWith(".obj")
+        ? objAssetName.substring(0, objAssetName.length() - 4) + ".mesh"
+        : objAssetName + ".mesh";
+  }
+
+  private static Mesh loadBinaryMesh(Context context, String key, String meshAssetName)
+      throws IOException {
+    BinaryMesh binaryMesh = BinaryMesh.map(context, meshAssetName);
+
+    int[] buffers = new int[2];
+    GLES20.glGenBuffers(2, buffers, 0);
+
+    // The mapped data is uploaded as it is. The index buffer must not go into a vertex array.
+    GlState.bindVertexArray(0);
+    GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER,
+        binaryMesh.vertices.capacity(),
+        binaryMesh.vertices,
+        GLES20.GL_STATIC_DRAW);
+
+    GlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+    GLES20.glBufferData(
+        GLES20.GL_ELEMENT_ARRAY_BUFFER,
+        binaryMesh.indices.capacity(),
+        binaryMesh.indices,
+        GLES20.GL_STATIC_DRAW);
+
+    GlValidation.check(TAG, "Mesh buffer load");
+
+    return new Mesh(
+        key,
+        buffers[0],
+        buffers[1],
+        binaryMesh.indexCount,
+        BinaryMesh.STRIDE,
+        BinaryMesh.POSITION_OFFSET,
+        BinaryMesh.TEX_COORD_OFFSET,
+        BinaryMesh.NORMAL_OFFSET);
+  }
+
+  private static Mesh loadObjMesh(Context context, String key, String objAssetName)
+      throws IOException {
+    // Read the obj file.
+    Obj obj;
+    try (InputStream objInputStream = context.getAssets().open(objAssetName)) {
+      obj = ObjReader.read(objInputStream);
+    }
+
+    // Prepare the Obj so that its structure is suitable for
+    // rendering with OpenGL:
+    // 1. Triangulate it
+    // 2. Make sure that texture coordinates are not ambiguous
+    // 3. Make sure that normals are not ambiguous
+    // 4. Convert it to single-indexed data
+    obj = ObjUtils.convertToRenderable(obj);
+
+    // OpenGL does not use Java arrays. ByteBuffers are used instead to provide data in a format
+    // that OpenGL understands.
+
+    // Obtain the data from the OBJ, as direct buffers:
+    IntBuffer wideIndices = ObjData.getFaceVertexIndices(obj, 3);
+    FloatBuffer vertices = ObjData.getVertices(obj);
+    FloatBuffer texCoords = ObjData.getTexCoords(obj, 2);
+    FloatBuffer normals = ObjData.getNormals(obj);
+
+    // Convert int indices to shorts for GL ES 2.0 compatibility
+    ShortBuffer indices =
+        ByteBuffer.allocateDirect(2 * wideIndices.limit())
+            .order(ByteOrder.nativeOrder())
+            .asShortBuffer();
+    while (wideIndices.hasRemaining()) {
+      indices.put((short) wideIndices.get());
+    }
+    indices.rewind();
+
+    int[] buffers = new int[2];
+    GLES20.glGenBuffers(2, buffers, 0);
+    int vertexBufferId = buffers[0];
+    int indexBufferId = buffers[1];
+
+    // Load vertex buffer
+    int verticesBaseAddress = 0;
+    int texCoordsBaseAddress = verticesBaseAddress + 4 * vertices.limit();
+    int normalsBaseAddress = texCoordsBaseAddress + 4 * texCoords.limit();
+    final int totalBytes = normalsBaseAddress + 4 * normals.limit();
+
+    GlState.bindVertexArray(0);
+    GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+    GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, totalBytes, null, GLES20.GL_STATIC_DRAW);
+    GLES20.glBufferSubData(
+        GLES20.GL_ARRAY_BUFFER, verticesBaseAddress, 4 * vertices.limit(), vertices);
+    GLES20.glBufferSubData(
+        GLES20.GL_ARRAY_BUFFER, texCoordsBaseAddress, 4 * texCoords.limit(), texCoords);
+    GLES20.glBufferSubData(
+        GLES20.GL_ARRAY_BUFFER, normalsBaseAddress, 4 * normals.limit(), normals);
+
+    // Load index buffer
+    GlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+    int indexCount = indices.limit();
+    GLES20.glBufferData(
+        GLES20.GL_ELEMENT_ARRAY_BUFFER, 2 * indexCount, indices, GLES20.GL_STATIC_DRAW);
+
+    GlValidation.check(TAG, "OBJ buffer load");
+
+    return new Mesh(
+        key,
+        vertexBufferId,
+        indexBufferId,
+        indexCount,
+        /*stride=*/ 0,
+        verticesBaseAddress,
+        texCoordsBaseAddress,
+        normalsBaseAddress);
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import java.util.Arrays;
+
+/**
+ * Tracks the OpenGL state set by the renderers and skips calls that would not change it.
+ *
+ * <p>Renderers set every piece of state they depend on through this class before drawing, instead
+ * of resetting it afterwards, so consecutive renderers that need the same state share it. State
+ * that is not known, after {@link #invalidate()}, is always set. Code outside the renderers that
+ * may change state, like ARCore updating the camera texture, must be followed by the matching
+ * {@code invalidate} call. Must only be used from the GL thread.
+ */
+public final class GlState {
+  private static final int UNKNOWN = -1;
+  private static final int MAX_TEXTURE_UNITS = 8;
+  private static final int MAX_VERTEX_ATTRIBS = 16;
+
+  private static int program;
+  private static int activeTextureUnit;
+  private static final int[] texture2dBindings = new int[MAX_TEXTURE_UNITS];
+  private static final int[] textureExternalBindings = new int[MAX_TEXTURE_UNITS];
+  private static int arrayBuffer;
+  private static int elementArrayBuffer;
+  private static int vertexArray;
+  private static final int[] vertexAttribArrays = new int[MAX_VERTEX_ATTRIBS];
+  private static int blend;
+  private static int depthTest;
+  private static int blendSrc;
+  private static int blendDst;
+  private static int depthMask;
+
+  private static int issuedCount;
+  private static int elidedCount;
+
+  static {
+    invalidate();
+  }
+
+  private GlState() {}
+
+  /** Forgets all state, e.g. for a new context. */
+  public static void invalidate() {
+    program = UNKNOWN;
+    activeTextureUnit = UNKNOWN;
+    invalidateTextureBindings();
+    arrayBuffer = UNKNOWN;
+    elementArrayBuffer = UNKNOWN;
+    // Only the renderers bind vertex arrays, and a new context has none bound. Knowing this keeps
+    // OpenGL ES 2 contexts from ever seeing an OpenGL ES 3 call.
+    vertexArray = 0;
+    Arrays.fill(vertexAttribArrays, UNKNOWN);
+    blend = UNKNOWN;
+    depthTest = UNKNOWN;
+    blendSrc = UNKNOWN;
+    blendDst = UNKNOWN;
+    depthMask = UNKNOWN;
+  }
+
+  /** Forgets the texture bindings, e.g. after {@code Session.update()}. */
+  public static void invalidateTextureBindings() {
+    activeTextureUnit = UNKNOWN;
+    Arrays.fill(texture2dBindings, UNKNOWN);
+    Arrays.fill(textureExternalBindings, UNKNOWN);
+  }
+
+  /** Starts counting the calls of a new frame. */
+  public static void resetCounters() {
+    issuedCount = 0;
+    elidedCount = 0;
+  }
+
+  /** Returns the number of state calls made to OpenGL since {@link #resetCounters()}. */
+  public static int getIssuedCount() {
+    return issuedCount;
+  }
+
+  /** Returns the number of state calls skipped since {@link #resetCounters()}. */
+  public static int getElidedCount() {
+    return elidedCount;
+  }
+
+  public static void useProgram(int program) {
+    if (elide(GlState.program == program)) {
+      return;
+    }
+    GlState.program = program;
+    GLES20.glUseProgram(program);
+  }
+
+  /** @param texture One of {@code GL_TEXTURE0} and up. */
+  public static void activeTexture(int texture) {
+    int unit = texture - GLES20.GL_TEXTURE0;
+    if (elide(activeTextureUnit == unit)) {
+      return;
+    }
+    activeTextureUnit = unit;
+    GLES20.glActiveTexture(texture);
+  }
+
+  /** Binds a texture to the active texture unit. */
+  public static void bindTexture(int target, int texture) {
+    int[] bindings = getTextureBindings(target);
+    if (bindings == null || activeTextureUnit < 0 || activeTextureUnit >= MAX_TEXTURE_UNITS) {
+      // Not tracked.
+      issuedCount++;
+      if (bindings != null) {
+        Arrays.fill(bindings, UNKNOWN);
+      }
+      GLES20.glBindTexture(target, texture);
+      return;
+    }
+    if (elide(bindings[activeTextureUnit] == texture)) {
+      return;
+    }
+    bindings[activeTextureUnit] = texture;
+    GLES20.glBindTexture(target, texture);
+  }
+
+  /** @param target {@code GL_ARRAY_BUFFER} or {@code GL_ELEMENT_ARRAY_BUFFER}. */
+  public static void bindBuffer(int target, int buffer) {
+    if (target == GLES20.GL_ARRAY_BUFFER) {
+      if (elide(arrayBuffer == buffer)) {
+        return;
+      }
+      arrayBuffer = buffer;
+    } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+      if (elide(elementArrayBuffer == buffer)) {
+        return;
+      }
+      elementArrayBuffer = buffer;
+    } else {
+      issuedCount++;
+    }
+    GLES20.glBindBuffer(target, buffer);
+  }
+
+  /** Binds a vertex array object. Only for OpenGL ES 3 contexts, except to bind 0. */
+  public static void bindVertexArray(int array) {
+    if (elide(vertexArray == array)) {
+      return;
+    }
+    vertexArray = array;
+    GLES30.glBindVertexArray(array);
+    // The element array buffer and the enabled attributes are part of the vertex array.
+    elementArrayBuffer = UNKNOWN;
+    Arrays.fill(vertexAttribArrays, UNKNOWN);
+  }
+
+  public static void enableVertexAttribArray(int index) {
+    setVertexAttribArray(index, true);
+  }
+
+  public static void disableVertexAttribArray(int index) {
+    setVertexAttribArray(index, false);
+  }
+
+  /** @param capability {@code GL_BLEND} or {@code GL_DEPTH_TEST}; others are not tracked. */
+  public static void setEnabled(int capability, boolean enabled) {
+    int value = enabled ? 1 : 0;
+    if (capability == GLES20.GL_BLEND) {
+      if (elide(blend == value)) {
+        return;
+      }
+      blend = value;
+    } else if (capability == GLES20.GL_DEPTH_TEST) {
+      if (elide(depthTest == value)) {
+        return;
+      }
+      depthTest = value;
+    } else {
+      issuedCount++;
+    }
+    if (enabled) {
+      GLES20.glEnable(capability);
+    } else {
+      GLES20.glDisable(capability);
+    }
+  }
+
+  public static void blendFunc(int src, int dst) {
+    if (elide(blendSrc == src && blendDst == dst)) {
+      return;
+    }
+    blendSrc = src;
+    blendDst = dst;
+    GLES20.glBlendFunc(src, dst);
+  }
+
+  public static void depthMask(boolean flag) {
+    int value = flag ? 1 : 0;
+    if (elide(depthMask == value)) {
+      return;
+    }
+    depthMask = value;
+    GLES20.glDepthMask(flag);
+  }
+
+  private static void setVertexAttribArray(int index, boolean enabled) {
+    int value = enabled ? 1 : 0;
+    boolean tracked = index >= 0 && index < MAX_VERTEX_ATTRIBS;
+    if (tracked) {
+      if (elide(vertexAttribArrays[index] == value)) {
+        return;
+      }
+      vertexAttribArrays[index] = value;
+    } else {
+      issuedCount++;
+    }
+    if (enabled) {
+      GLES20.glEnableVertexAttribArray(index);
+    } else {
+      GLES20.glDisableVertexAttribArray(index);
+    }
+  }
+
+  private static int[] getTextureBindings(int target) {
+    if (target == GLES20.GL_TEXTURE_2D) {
+      return texture2dBindings;
+    } else if (target == GLES11Ext.GL_TEXTURE_EXTERNAL_OES) {
+      return textureExternalBindings;
+    }
+    return null;
+  }
+
+  /** Counts the call, and returns {@code same}. */
+  private static boolean elide(boolean same) {
+    if (same) {
+      elidedCount++;
+    } else {
+      issuedCount++;
+    }
+    return same;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+/**
+ * Checks for OpenGL errors as often as the current mode asks for.
+ *
+ * <p>{@code glGetError} can make the CPU wait for the GPU on some drivers, so the renderers call
+ * {@link #check(String, String)} instead of {@link ShaderUtil#checkGLError(String, String)}. With
+ * {@link #NONE} a check is a single field comparison. The app picks the mode from its build
+ * configuration, and it can be changed at runtime. Must only be used from the GL thread.
+ */
+public final class GlValidation {
+  /** Never checks for errors. */
+  public static final int NONE = 0;
+  /** Checks once per frame, in {@link #checkFrame(String)}. */
+  public static final int PER_FRAME = 1;
+  /** Checks after every labelled call site, and once per frame. */
+  public static final int PER_CALL = 2;
+
+  private static int mode = NONE;
+
+  private GlValidation() {}
+
+  /** @param mode One of {@link #NONE}, {@link #PER_FRAME} and {@link #PER_CALL}. */
+  public static void setMode(int mode) {
+    if (mode < NONE || mode > PER_CALL) {
+      throw new IllegalArgumentException("Unknown GL validation mode " + mode);
+    }
+    GlValidation.mode = mode;
+  }
+
+  public static int getMode() {
+    return mode;
+  }
+
+  /**
+   * Checks for errors in {@link #PER_CALL} mode.
+   *
+   * @param label Describes the calls since the previous check.
+   * @throws RuntimeException If there was an error.
+   */
+  public static void check(String tag, String label) {
+    if (mode != PER_CALL) {
+      return;
+    }
+    ShaderUtil.checkGLError(tag, label);
+  }
+
+  /**
+   * Checks for errors at the end of a frame, in {@link #PER_FRAME} and {@link #PER_CALL} mode.
+   *
+   * @throws RuntimeException If there was an error.
+   */
+  public static void checkFrame(String tag) {
+    if (mode == NONE) {
+      return;
+    }
+    ShaderUtil.checkGLError(tag, "Frame");
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.opengl.GLES20;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A compressed 2D texture with mipmaps, compiled from a PNG file at build time and memory-mapped
+ * from the APK.
+ *
+ * <p>The file is a little-endian KTX 1.1 file. The textures compiled by the build are ETC2 RGBA8 /
+ * EAC, with premultiplied alpha and a full mip chain, which every OpenGL ES 3.0 device can sample.
+ * Texture assets are stored uncompressed in the APK, which is what allows mapping them.
+ */
+public class KtxTexture {
+  private static final byte[] IDENTIFIER = {
+    (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+  };
+  private static final int HEADER_SIZE = 64;
+  private static final int ENDIANNESS = 0x04030201;
+
+  /** The compressed format of the levels, e.g. {@code GLES30.GL_COMPRESSED_RGBA8_ETC2_EAC}. */
+  public final int internalFormat;
+  public final int width;
+  public final int height;
+  /** The compressed data of every mip level, from the largest. */
+  public final ByteBuffer[] levels;
+
+  private KtxTexture(ByteBuffer buffer) throws IOException {
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < IDENTIFIER.length; ++i) {
+      if (buffer.get(i) != IDENTIFIER[i]) {
+        throw new IOException("Not a KTX 1.1 file");
+      }
+    }
+    if (buffer.getInt(12) != ENDIANNESS) {
+      throw new IOException("Not a little-endian KTX file");
+    }
+    // Compressed textures have a glType and glFormat of 0.
+    if (buffer.getInt(16) != 0 || buffer.getInt(24) != 0) {
+      throw new IOException("Not a compressed texture");
+    }
+    internalFormat = buffer.getInt(28);
+    width = buffer.getInt(36);
+    height = buffer.getInt(40);
+    levels = new ByteBuffer[Math.max(1, buffer.getInt(56))];
+
+    int offset = HEADER_SIZE + buffer.getInt(60);
+    for (int level = 0; level < levels.length; ++level) {
+      if (buffer.capacity() < offset + 4) {
+        throw new IOException("Truncated texture");
+      }
+      int imageSize = buffer.getInt(offset);
+      int start = offset + 4;
+      int end = start + imageSize;
+      if (buffer.capacity() < end) {
+        throw new IOException("Truncated texture");
+      }
+      levels[level] = slice(buffer, start, end);
+      // Levels are padded to 4 bytes.
+      offset = (end + 3) & ~3;
+    }
+  }
+
+  /**
+   * Maps a texture asset.
+   *
+   * @throws java.io.FileNotFoundException If there is no such asset.
+   * @throws IOException If the asset is compressed or not a KTX file.
+   */
+  public static KtxTexture map(Context context, String assetName) throws IOException {
+    try (AssetFileDescriptor fd = context.getAssets().openFd(assetName);
+        FileInputStream inputStream = fd.createInputStream();
+        FileChannel channel = inputStream.getChannel()) {
+      // The mapping stays valid after the channel is closed.
+      MappedByteBuffer buffer =
+          channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+      return new KtxTexture(buffer);
+    }
+  }
+
+  /** Returns the name of the KTX texture compiled from a PNG asset. */
+  public static String getKtxName(String pngAssetName) {
+    return pngAssetName.endsWith(".png")
+        ? pngAssetName.substring(0, pngAssetName.length() - 4) + ".ktx"
+        : pngAssetName + ".ktx";
+  }
+
+  /** Uploads every level to the texture bound to {@code GL_TEXTURE_2D}. */
+  public void upload() {
+    for (int level = 0; level < levels.length; ++level) {
+      GLES20.glCompressedTexImage2D(
+          GLES20.GL_TEXTURE_2D,
+          level,
+          internalFormat,
+          Math.max(1, width >> level),
+          Math.max(1, height >> level),
+          /*border=*/ 0,
+          levels[level].capacity(),
+          levels[level]);
+    }
+  }
+
+  /** Returns the number of bytes of all levels. */
+  public int getByteCount() {
+    int byteCount = 0;
+    for (ByteBuffer level : levels) {
+      byteCount += level.capacity();
+    }
+    return byteCount;
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(start);
+    duplicate.limit(end);
+    return duplicate.slice();
+  }
+}
@@ -16,22 +16,10 @@
 package com.google.ar.core.examples.java.common.rendering;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
+import android.opengl.GLES30;
 import android.opengl.Matrix;
-import de.javagl.obj.Obj;
-import de.javagl.obj.ObjData;
-import de.javagl.obj.ObjReader;
-import de.javagl.obj.ObjUtils;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -62,6 +50,12 @@ public class ObjectRenderer {
   private static final float[] LIGHT_DIRECTION = new float[] {0.250f, 0.866f, 0.433f, 0.0f};
   private final float[] viewLightDirection = new float[4];
 
+  // Shared GL resources, owned by the cache.
+  private GlResourceCache resourceCache;
+  private GlResourceCache.Mesh mesh;
+  private GlResourceCache.Texture texture;
+  private GlResourceCache.Program programHandle;
+
   // Object vertex buffer variables.
   private int vertexBufferId;
   private int verticesBaseAddress;
@@ -69,6 +63,11 @@ public class ObjectRenderer {
   private int normalsBaseAddress;
   private int indexBufferId;
   private int indexCount;
+  private int stride;
+
+  // Vertex array object capturing the attribute setup, 0 on the OpenGL ES 2 path.
+  private boolean useVertexArray;
+  private int vertexArrayId;
 
   private int program;
   private final int[] textures = new int[1];
@@ -112,6 +111,7 @@ public class ObjectRenderer {
   private final float[] modelMatrix = new float[16];
   private final float[] modelViewMatrix = new float[16];
   private final float[] modelViewProjectionMatrix = new float[16];
+  private final float[] scaleMatrix = new float[16];
 
   // Set some default material properties to use for lighting.
   private float ambient = 0.3f;
@@ -135,92 +135,67 @@ public class ObjectRenderer {
    */
   public void createOnGlThread(Context context, String objAssetName, String diffuseTextureAssetName)
       throws IOException {
+    createOnGlThread(context, new GlResourceCache(), objAssetName, diffuseTextureAssetName);
+  }
+
+  /**
+   * Creates and initializes OpenGL resources needed for rendering the model, sharing them with
+   * other renderers through a cache.
+   *
+   * @param context Context for loading the shader and below-named model and texture assets.
+   * @param resourceCache Cache of the shared texture, program and mesh.
+   * @param objAssetName Name of the OBJ file containing the model geometry.
+   * @param diffuseTextureAssetName Name of the PNG file containing the diffuse texture map.
+   */
+  public void createOnGlThread(
+      Context context,
+      GlResourceCache resourceCache,
+      String objAssetName,
+      String diffuseTextureAssetName)
+      throws IOException {
+    this.resourceCache = resourceCache;
+    // A vertex array from an earlier call belonged to a previous, lost context.
+    vertexArrayId = 0;
+    mesh = null;
+
     // Compiles and loads the shader based on the current configuration.
     compileAndLoadShaderProgram(context);
 
     // Read the texture.
-    Bitmap textureBitmap =
-        BitmapFactory.decodeStream(context.getAssets().open(diffuseTextureAssetName));
-
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-    GLES20.glGenTextures(textures.length, textures, 0);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
-
-    GLES20.glTexParameteri(
-        GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
-    GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-    GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
-    GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-
-    textureBitmap.recycle();
-
-    ShaderUtil.checkGLError(TAG, "Texture loading");
+    texture = resourceCache.acquireTexture(context, diffuseTextureAssetName);
+    textures[0] = texture.textureId;
 
     // Read the obj file.
-    InputStream objInputStream = context.getAssets().open(objAssetName);
-    Obj obj = ObjReader.read(objInputStream);
-
-    // Prepare the Obj so that its structure is suitable for
-    // rendering with OpenGL:
-    // 1. Triangulate it
-    // 2. Make sure that texture coordinates are not ambiguous
-    // 3. Make sure that normals are not ambiguous
-    // 4. Convert it to single-indexed data
-    obj = ObjUtils.convertToRenderable(obj);
-
-    // OpenGL does not use Java arrays. ByteBuffers are used instead to provide data in a format
-    // that OpenGL understands.
-
-    // Obtain the data from the OBJ, as direct buffers:
-    IntBuffer wideIndices = ObjData.getFaceVertexIndices(obj, 3);
-    FloatBuffer vertices = ObjData.getVertices(obj);
-    FloatBuffer texCoords = ObjData.getTexCoords(obj, 2);
-    FloatBuffer normals = ObjData.getNormals(obj);
-
-    // Convert int indices to shorts for GL ES 2.0 compatibility
-    ShortBuffer indices =
-        ByteBuffer.allocateDirect(2 * wideIndices.limit())
-            .order(ByteOrder.nativeOrder())
-            .asShortBuffer();
-    while (wideIndices.hasRemaining()) {
-      indices.put((short) wideIndices.get());
-    }
-    indices.rewind();
-
-    int[] buffers = new int[2];
-    GLES20.glGenBuffers(2, buffers, 0);
-    vertexBufferId = buffers[0];
-    indexBufferId = buffers[1];
-
-    // Load vertex buffer
-    verticesBaseAddress = 0;
-    texCoordsBaseAddress = verticesBaseAddress + 4 * vertices.limit();
-    normalsBaseAddress = texCoordsBaseAddress + 4 * texCoords.limit();
-    final int totalBytes = normalsBaseAddress + 4 * normals.limit();
-
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-    GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, totalBytes, null, GLES20.GL_STATIC_DRAW);
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, verticesBaseAddress, 4 * vertices.limit(), vertices);
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, texCoordsBaseAddress, 4 * texCoords.limit(), texCoords);
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, normalsBaseAddress, 4 * normals.limit(), normals);
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-
-    // Load index buffer
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
-    indexCount = indices.limit();
-    GLES20.glBufferData(
-        GLES20.GL_ELEMENT_ARRAY_BUFFER, 2 * indexCount, indices, GLES20.GL_STATIC_DRAW);
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-
-    ShaderUtil.checkGLError(TAG, "OBJ buffer load");
+    mesh = resourceCache.acquireMesh(context, objAssetName);
+    vertexBufferId = mesh.vertexBufferId;
+    indexBufferId = mesh.indexBufferId;
+    indexCount = mesh.indexCount;
+    stride = mesh.stride;
+    verticesBaseAddress = mesh.verticesBaseAddress;
+    texCoordsBaseAddress = mesh.texCoordsBaseAddress;
+    normalsBaseAddress = mesh.normalsBaseAddress;
+
+    // On OpenGL ES 3, capture the attribute setup once instead of repeating it on every draw.
+    useVertexArray = GlCapabilities.hasVertexArrayObjects();
+    createVertexArray();
 
     Matrix.setIdentityM(modelMatrix, 0);
   }
 
+  /** Releases the shared GL resources of this renderer. */
+  public void release() {
+    if (resourceCache == null) {
+      return;
+    }
+    resourceCache.release(programHandle);
+    resourceCache.release(texture);
+    resourceCache.release(mesh);
+    programHandle = null;
+    texture = null;
+    mesh = null;
+    deleteVertexArray();
+  }
+
   /**
    * Selects the blending mode for rendering.
    *
@@ -259,19 +234,14 @@ public class ObjectRenderer {
     Map<String, Integer> defineValuesMap = new TreeMap<>();
     defineValuesMap.put(USE_DEPTH_FOR_OCCLUSION_SHADER_FLAG, useDepthForOcclusion ? 1 : 0);
 
-    final int vertexShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_NAME);
-    final int fragmentShader =
-        ShaderUtil.loadGLShader(
-            TAG, context, GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_NAME, defineValuesMap);
-
-    program = GLES20.glCreateProgram();
-    GLES20.glAttachShader(program, vertexShader);
-    GLES20.glAttachShader(program, fragmentShader);
-    GLES20.glLinkProgram(program);
-    GLES20.glUseProgram(program);
+    GlResourceCache.Program previousProgram = programHandle;
+    programHandle =
+        resourceCache.acquireProgram(
+            context, VERTEX_SHADER_NAME, FRAGMENT_SHADER_NAME, defineValuesMap);
+    resourceCache.release(previousProgram);
 
-    ShaderUtil.checkGLError(TAG, "Program creation");
+    program = programHandle.programId;
+    GlState.useProgram(program);
 
     modelViewUniform = GLES20.glGetUniformLocation(program, "u_ModelView");
     modelViewProjectionUniform = GLES20.glGetUniformLocation(program, "u_ModelViewProjection");
@@ -295,7 +265,55 @@ public class ObjectRenderer {
       depthAspectRatioUniform = GLES20.glGetUniformLocation(program, "u_DepthAspectRatio");
     }
 
-    ShaderUtil.checkGLError(TAG, "Program parameters");
+    GlValidation.check(TAG, "Program parameters");
+
+    // The attribute locations may have changed.
+    if (mesh != null) {
+      createVertexArray();
+    }
+  }
+
+  /** Creates the vertex array object for the current program and mesh, on OpenGL ES 3. */
+  private void createVertexArray() {
+    deleteVertexArray();
+    if (!useVertexArray) {
+      return;
+    }
+    int[] vertexArrays = new int[1];
+    GLES30.glGenVertexArrays(1, vertexArrays, 0);
+    vertexArrayId = vertexArrays[0];
+
+    GlState.bindVertexArray(vertexArrayId);
+    bindVertexAttributes();
+    // The element array buffer binding is part of the vertex array state.
+    GlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+    GlState.bindVertexArray(0);
+
+    GlValidation.check(TAG, "Vertex array creation");
+  }
+
+  private void deleteVertexArray() {
+    if (vertexArrayId != 0) {
+      GlState.bindVertexArray(0);
+      GLES30.glDeleteVertexArrays(1, new int[] {vertexArrayId}, 0);
+      vertexArrayId = 0;
+    }
+  }
+
+  /** Points the attributes at the mesh and enables them. */
+  private void bindVertexAttributes() {
+    GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+
+    GLES20.glVertexAttribPointer(
+        positionAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, stride, verticesBaseAddress);
+    GLES20.glVertexAttribPointer(
+        normalAttribute, 3, GLES20.GL_FLOAT, false, stride, normalsBaseAddress);
+    GLES20.glVertexAttribPointer(
+        texCoordAttribute, 2, GLES20.GL_FLOAT, false, stride, texCoordsBaseAddress);
+
+    GlState.enableVertexAttribArray(positionAttribute);
+    GlState.enableVertexAttribArray(normalAttribute);
+    GlState.enableVertexAttribArray(texCoordAttribute);
   }
 
   /**
@@ -306,7 +324,6 @@ public class ObjectRenderer {
    * @see android.opengl.Matrix
    */
   public void updateModelMatrix(float[] modelMatrix, float scaleFactor) {
-    float[] scaleMatrix = new float[16];
     Matrix.setIdentityM(scaleMatrix, 0);
     scaleMatrix[0] = scaleFactor;
     scaleMatrix[5] = scaleFactor;
@@ -353,14 +370,14 @@ public class ObjectRenderer {
       float[] colorCorrectionRgba,
       float[] objColor) {
 
-    ShaderUtil.checkGLError(TAG, "Before draw");
+    GlValidation.check(TAG, "Before draw");
 
     // Build the ModelView and ModelViewProjection matrices
     // for calculating object position and light.
     Matrix.multiplyMM(modelViewMatrix, 0, cameraView, 0, modelMatrix, 0);
     Matrix.multiplyMM(modelViewProjectionMatrix, 0, cameraPerspective, 0, modelViewMatrix, 0);
 
-    GLES20.glUseProgram(program);
+    GlState.useProgram(program);
 
     // Set the lighting environment properties.
     Matrix.multiplyMV(viewLightDirection, 0, modelViewMatrix, 0, LIGHT_DIRECTION, 0);
@@ -380,15 +397,15 @@ public class ObjectRenderer {
     GLES20.glUniform4f(materialParametersUniform, ambient, diffuse, specular, specularPower);
 
     // Attach the object texture.
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+    GlState.activeTexture(GLES20.GL_TEXTURE0);
+    GlState.bindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
     GLES20.glUniform1i(textureUniform, 0);
 
     // Occlusion parameters.
     if (useDepthForOcclusion) {
       // Attach the depth texture.
-      GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, depthTextureId);
+      GlState.activeTexture(GLES20.GL_TEXTURE1);
+      GlState.bindTexture(GLES20.GL_TEXTURE_2D, depthTextureId);
       GLES20.glUniform1i(depthTextureUniform, 1);
 
       // Set the depth texture uv transform.
@@ -397,62 +414,55 @@ public class ObjectRenderer {
     }
 
     // Set the vertex attributes.
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-
-    GLES20.glVertexAttribPointer(
-        positionAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, verticesBaseAddress);
-    GLES20.glVertexAttribPointer(normalAttribute, 3, GLES20.GL_FLOAT, false, 0, normalsBaseAddress);
-    GLES20.glVertexAttribPointer(
-        texCoordAttribute, 2, GLES20.GL_FLOAT, false, 0, texCoordsBaseAddress);
-
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    if (vertexArrayId != 0) {
+      GlState.bindVertexArray(vertexArrayId);
+    } else {
+      GlState.bindVertexArray(0);
+      bindVertexAttributes();
+    }
 
     // Set the ModelViewProjection matrix in the shader.
     GLES20.glUniformMatrix4fv(modelViewUniform, 1, false, modelViewMatrix, 0);
     GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMatrix, 0);
 
-    // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(positionAttribute);
-    GLES20.glEnableVertexAttribArray(normalAttribute);
-    GLES20.glEnableVertexAttribArray(texCoordAttribute);
-
-    if (blendMode != null) {
-      GLES20.glEnable(GLES20.GL_BLEND);
+    // Set all the depth and blend state this draw depends on. It is left as it is afterwards, and
+    // the next renderer only changes what it needs differently.
+    GlState.setEnabled(GLES20.GL_DEPTH_TEST, true);
+    if (blendMode == null) {
+      GlState.setEnabled(GLES20.GL_BLEND, false);
+      GlState.depthMask(true);
+    } else {
+      GlState.setEnabled(GLES20.GL_BLEND, true);
       switch (blendMode) {
         case Shadow:
           // Multiplicative blending function for Shadow.
-          GLES20.glDepthMask(false);
-          GLES20.glBlendFunc(GLES20.GL_ZERO, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+          GlState.depthMask(false);
+          GlState.blendFunc(GLES20.GL_ZERO, GLES20.GL_ONE_MINUS_SRC_ALPHA);
           break;
         case AlphaBlending:
           // Alpha blending function, with the depth mask enabled.
-          GLES20.glDepthMask(true);
+          GlState.depthMask(true);
 
           // Textures are loaded with premultiplied alpha
           // (https://developer.android.com/reference/android/graphics/BitmapFactory.Options#inPremultiplied),
           // so we use the premultiplied alpha blend factors.
-          GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+          GlState.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
           break;
       }
     }
 
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+    if (vertexArrayId == 0) {
+      GlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+    }
     GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-
-    if (blendMode != null) {
-      GLES20.glDisable(GLES20.GL_BLEND);
-      GLES20.glDepthMask(true);
+    if (vertexArrayId == 0) {
+      // Disable vertex arrays
+      GlState.disableVertexAttribArray(positionAttribute);
+      GlState.disableVertexAttribArray(normalAttribute);
+      GlState.disableVertexAttribArray(texCoordAttribute);
     }
 
-    // Disable vertex arrays
-    GLES20.glDisableVertexAttribArray(positionAttribute);
-    GLES20.glDisableVertexAttribArray(normalAttribute);
-    GLES20.glDisableVertexAttribArray(texCoordAttribute);
-
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-
-    ShaderUtil.checkGLError(TAG, "After draw");
+    GlValidation.check(TAG, "After draw");
   }
 
   private static void normalizeVec3(float[] v) {
@@ -16,11 +16,8 @@
 package com.google.ar.core.examples.java.common.rendering;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.GLUtils;
 import android.opengl.Matrix;
 import com.google.ar.core.Camera;
 import com.google.ar.core.Plane;
@@ -115,35 +112,14 @@ public class PlaneRenderer {
    * @param gridDistanceTextureName Name of the PNG file containing the grid texture.
    */
   public void createOnGlThread(Context context, String gridDistanceTextureName) throws IOException {
-    int vertexShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_NAME);
-    int passthroughShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_NAME);
+    planeProgram =
+        ProgramBinaryCache.loadProgram(context, VERTEX_SHADER_NAME, FRAGMENT_SHADER_NAME);
+    GlState.useProgram(planeProgram);
 
-    planeProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(planeProgram, vertexShader);
-    GLES20.glAttachShader(planeProgram, passthroughShader);
-    GLES20.glLinkProgram(planeProgram);
-    GLES20.glUseProgram(planeProgram);
-
-    ShaderUtil.checkGLError(TAG, "Program creation");
+    GlValidation.check(TAG, "Program creation");
 
     // Read the texture.
-    Bitmap textureBitmap =
-        BitmapFactory.decodeStream(context.getAssets().open(gridDistanceTextureName));
-
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-    GLES20.glGenTextures(textures.length, textures, 0);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
-
-    GLES20.glTexParameteri(
-        GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
-    GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-    GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
-    GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-
-    ShaderUtil.checkGLError(TAG, "Texture loading");
+    textures[0] = GlResourceCache.loadTexture(context, gridDistanceTextureName);
 
     planeXZPositionAlphaAttribute = GLES20.glGetAttribLocation(planeProgram, "a_XZPositionAlpha");
 
@@ -155,7 +131,7 @@ public class PlaneRenderer {
     gridControlUniform = GLES20.glGetUniformLocation(planeProgram, "u_gridControl");
     planeUvMatrixUniform = GLES20.glGetUniformLocation(planeProgram, "u_PlaneUvMatrix");
 
-    ShaderUtil.checkGLError(TAG, "Program parameters");
+    GlValidation.check(TAG, "Program parameters");
   }
 
   /** Updates the plane model transform matrix and extents. */
@@ -269,7 +245,7 @@ public class PlaneRenderer {
     indexBuffer.rewind();
     GLES20.glDrawElements(
         GLES20.GL_TRIANGLE_STRIP, indexBuffer.limit(), GLES20.GL_UNSIGNED_SHORT, indexBuffer);
-    ShaderUtil.checkGLError(TAG, "Drawing plane");
+    GlValidation.check(TAG, "Drawing plane");
   }
 
   static class SortablePlane {
@@ -318,28 +294,32 @@ public class PlaneRenderer {
     float[] cameraView = new float[16];
     cameraPose.inverse().toMatrix(cameraView, 0);
 
-    // Disable depth write.
-    GLES20.glDepthMask(false);
+    // Test, but do not write depth.
+    GlState.setEnabled(GLES20.GL_DEPTH_TEST, true);
+    GlState.depthMask(false);
 
     // Normal alpha blending with premultiplied alpha.
-    GLES20.glEnable(GLES20.GL_BLEND);
-    GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+    GlState.setEnabled(GLES20.GL_BLEND, true);
+    GlState.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
 
     // Set up the shader.
-    GLES20.glUseProgram(planeProgram);
+    GlState.useProgram(planeProgram);
 
     // Attach the texture.
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+    GlState.activeTexture(GLES20.GL_TEXTURE0);
+    GlState.bindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
     GLES20.glUniform1i(textureUniform, 0);
 
     // Shared fragment uniforms.
     GLES20.glUniform4fv(gridControlUniform, 1, GRID_CONTROL, 0);
 
-    // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(planeXZPositionAlphaAttribute);
+    // Enable vertex arrays. The planes are drawn from client-side arrays.
+    GlState.bindVertexArray(0);
+    GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    GlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    GlState.enableVertexAttribArray(planeXZPositionAlphaAttribute);
 
-    ShaderUtil.checkGLError(TAG, "Setting up to draw planes");
+    GlValidation.check(TAG, "Setting up to draw planes");
 
     for (SortablePlane sortedPlane : sortedPlanes) {
       Plane plane = sortedPlane.plane;
@@ -374,13 +354,10 @@ public class PlaneRenderer {
       draw(cameraView, cameraPerspective, normal);
     }
 
-    // Clean up the state we set
-    GLES20.glDisableVertexAttribArray(planeXZPositionAlphaAttribute);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-    GLES20.glDisable(GLES20.GL_BLEND);
-    GLES20.glDepthMask(true);
+    // Clean up the vertex array we enabled. Other state is set by the next renderer as needed.
+    GlState.disableVertexAttribArray(planeXZPositionAlphaAttribute);
 
-    ShaderUtil.checkGLError(TAG, "Cleaning up after drawing planes");
+    GlValidation.check(TAG, "Cleaning up after drawing planes");
   }
 
   // Calculate the normal distance to plane from cameraPose, the given planePose should have y axis
@@ -50,6 +50,9 @@ public class PointCloudRenderer {
   // was not changed.  Do this using the timestamp since we can't compare PointCloud objects.
   private long lastTimestamp = 0;
 
+  // Temporary matrix allocated here to reduce number of allocations for each frame.
+  private final float[] modelViewProjection = new float[16];
+
   public PointCloudRenderer() {}
 
   /**
@@ -59,38 +62,30 @@ public class PointCloudRenderer {
    * @param context Needed to access shader source.
    */
   public void createOnGlThread(Context context) throws IOException {
-    ShaderUtil.checkGLError(TAG, "before create");
+    GlValidation.check(TAG, "before create");
 
     int[] buffers = new int[1];
     GLES20.glGenBuffers(1, buffers, 0);
     vbo = buffers[0];
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+    GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
 
     vboSize = INITIAL_BUFFER_POINTS * BYTES_PER_POINT;
     GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vboSize, null, GLES20.GL_DYNAMIC_DRAW);
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-
-    ShaderUtil.checkGLError(TAG, "buffer alloc");
 
-    int vertexShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_NAME);
-    int passthroughShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_NAME);
+    GlValidation.check(TAG, "buffer alloc");
 
-    programName = GLES20.glCreateProgram();
-    GLES20.glAttachShader(programName, vertexShader);
-    GLES20.glAttachShader(programName, passthroughShader);
-    GLES20.glLinkProgram(programName);
-    GLES20.glUseProgram(programName);
+    programName =
+        ProgramBinaryCache.loadProgram(context, VERTEX_SHADER_NAME, FRAGMENT_SHADER_NAME);
+    GlState.useProgram(programName);
 
-    ShaderUtil.checkGLError(TAG, "program");
+    GlValidation.check(TAG, "program");
 
     positionAttribute = GLES20.glGetAttribLocation(programName, "a_Position");
     colorUniform = GLES20.glGetUniformLocation(programName, "u_Color");
     modelViewProjectionUniform = GLES20.glGetUniformLocation(programName, "u_ModelViewProjection");
     pointSizeUniform = GLES20.glGetUniformLocation(programName, "u_PointSize");
 
-    ShaderUtil.checkGLError(TAG, "program  params");
+    GlValidation.check(TAG, "program  params");
   }
 
   /**
@@ -102,9 +97,9 @@ public class PointCloudRenderer {
       // Redundant call.
       return;
     }
-    ShaderUtil.checkGLError(TAG, "before update");
+    GlValidation.check(TAG, "before update");
 
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+    GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
     lastTimestamp = cloud.getTimestamp();
 
     // If the VBO is not large enough to fit the new point cloud, resize it.
@@ -117,9 +112,8 @@ public class PointCloudRenderer {
     }
     GLES20.glBufferSubData(
         GLES20.GL_ARRAY_BUFFER, 0, numPoints * BYTES_PER_POINT, cloud.getPoints());
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
-    ShaderUtil.checkGLError(TAG, "after update");
+    GlValidation.check(TAG, "after update");
   }
 
   /**
@@ -131,23 +125,25 @@ public class PointCloudRenderer {
    *     com.google.ar.core.Camera#getProjectionMatrix(float[], int, float, float)}.
    */
   public void draw(float[] cameraView, float[] cameraPerspective) {
-    float[] modelViewProjection = new float[16];
     Matrix.multiplyMM(modelViewProjection, 0, cameraPerspective, 0, cameraView, 0);
 
-    ShaderUtil.checkGLError(TAG, "Before draw");
+    GlValidation.check(TAG, "Before draw");
 
-    GLES20.glUseProgram(programName);
-    GLES20.glEnableVertexAttribArray(positionAttribute);
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+    GlState.setEnabled(GLES20.GL_DEPTH_TEST, true);
+    GlState.depthMask(true);
+    GlState.setEnabled(GLES20.GL_BLEND, false);
+    GlState.useProgram(programName);
+    GlState.bindVertexArray(0);
+    GlState.enableVertexAttribArray(positionAttribute);
+    GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
     GLES20.glVertexAttribPointer(positionAttribute, 4, GLES20.GL_FLOAT, false, BYTES_PER_POINT, 0);
     GLES20.glUniform4f(colorUniform, 31.0f / 255.0f, 188.0f / 255.0f, 210.0f / 255.0f, 1.0f);
     GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjection, 0);
     GLES20.glUniform1f(pointSizeUniform, 5.0f);
 
     GLES20.glDrawArrays(GLES20.GL_POINTS, 0, numPoints);
-    GLES20.glDisableVertexAttribArray(positionAttribute);
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    GlState.disableVertexAttribArray(positionAttribute);
 
-    ShaderUtil.checkGLError(TAG, "Draw");
+    GlValidation.check(TAG, "Draw");
   }
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Links shader programs, and keeps the linked program binaries in the code cache directory so the
+ * next launch, or the next GL context, can skip compiling them.
+ *
+ * <p>There is one cache file per combination of shader assets and #define values. It holds a hash
+ * of the shader sources, with the defines, and of the GL renderer, version and vendor strings the
+ * binary was made by. A binary whose hash differs, e.g. after a driver update, or which the driver
+ * rejects, is replaced by compiling the program again. The system clears the code cache directory
+ * when the app is updated. Program binaries need OpenGL ES 3.0; on OpenGL ES 2.0 contexts programs
+ * are always compiled. Must only be used from the GL thread.
+ */
+public final class ProgramBinaryCache {
+  private static final String TAG = ProgramBinaryCache.class.getSimpleName();
+  private static final String DIRECTORY_NAME = "programs";
+
+  private ProgramBinaryCache() {}
+
+  /**
+   * Returns a linked program made of two shader assets, from the cache if possible.
+   *
+   * @param defineValuesMap The #define values to add to the top of both shaders.
+   * @throws RuntimeException If the shaders do not compile or link.
+   */
+  public static int loadProgram(
+      Context context,
+      String vertexShaderName,
+      String fragmentShaderName,
+      Map<String, Integer> defineValuesMap)
+      throws IOException {
+    long startNanos = SystemClock.elapsedRealtimeNanos();
+    String vertexSource = ShaderUtil.readShaderSource(context, vertexShaderName, defineValuesMap);
+    String fragmentSource =
+        ShaderUtil.readShaderSource(context, fragmentShaderName, defineValuesMap);
+
+    if (!isSupported()) {
+      return linkProgram(vertexSource, fragmentSource, /*retrievable=*/ false);
+    }
+
+    byte[] sourceHash =
+        hash(
+            vertexSource,
+            fragmentSource,
+            GLES20.glGetString(GLES20.GL_RENDERER),
+            GLES20.glGetString(GLES20.GL_VERSION),
+            GLES20.glGetString(GLES20.GL_VENDOR));
+    File file =
+        new File(
+            new File(context.getCodeCacheDir(), DIRECTORY_NAME),
+            toHex(
+                    hash(
+                        vertexShaderName,
+                        fragmentShaderName,
+                        new TreeMap<>(defineValuesMap).toString()))
+                + ".bin");
+
+    int program = loadBinary(file, sourceHash);
+    if (program != 0) {
+      Log.d(TAG, "Loaded " + vertexShaderName + " and " + fragmentShaderName + " binary in "
+          + (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000 + " us");
+      return program;
+    }
+
+    program = linkProgram(vertexSource, fragmentSource, /*retrievable=*/ true);
+    Log.d(TAG, "Compiled " + vertexShaderName + " and " + fragmentShaderName + " in "
+        + (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000 + " us");
+    try {
+      saveBinary(file, sourceHash, program);
+    } catch (IOException e) {
+      // The program is still usable, and is compiled again next time.
+      Log.w(TAG, "Failed to save program binary " + file, e);
+    }
+    return program;
+  }
+
+  /** Overload of loadProgram that assumes no additional #define values to add. */
+  public static int loadProgram(Context context, String vertexShaderName, String fragmentShaderName)
+      throws IOException {
+    return loadProgram(
+        context, vertexShaderName, fragmentShaderName, new TreeMap<String, Integer>());
+  }
+
+  private static boolean isSupported() {
+    if (GlCapabilities.getContextMajorVersion() < 3) {
+      return false;
+    }
+    int[] formatCount = new int[1];
+    GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formatCount, 0);
+    return formatCount[0] > 0;
+  }
+
+  private static int linkProgram(String vertexSource, String fragmentSource, boolean retrievable) {
+    int vertexShader = ShaderUtil.compileGLShader(TAG, GLES20.GL_VERTEX_SHADER, vertexSource);
+    int fragmentShader = ShaderUtil.compileGLShader(TAG, GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+
+    int program = GLES20.glCreateProgram();
+    if (retrievable) {
+      GLES30.glProgramParameteri(
+          program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+    }
+    GLES20.glAttachShader(program, vertexShader);
+    GLES20.glAttachShader(program, fragmentShader);
+    GLES20.glLinkProgram(program);
+
+    // The shaders are only needed for linking.
+    GLES20.glDetachShader(program, vertexShader);
+    GLES20.glDetachShader(program, fragmentShader);
+    GLES20.glDeleteShader(vertexShader);
+    GLES20.glDeleteShader(fragmentShader);
+
+    if (!isLinked(program)) {
+      Log.e(TAG, "Error linking program: " + GLES20.glGetProgramInfoLog(program));
+      GLES20.glDeleteProgram(program);
+      throw new RuntimeException("Error linking program.");
+    }
+    return program;
+  }
+
+  /** Returns a program made from a cached binary, or 0 if there is no usable one. */
+  private static int loadBinary(File file, byte[] sourceHash) {
+    int format;
+    byte[] binary;
+    try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+      byte[] fileHash = new byte[sourceHash.length];
+      inputStream.readFully(fileHash);
+      if (!Arrays.equals(fileHash, sourceHash)) {
+        Log.i(TAG, "Shaders or driver changed, discarding " + file.getName());
+        return 0;
+      }
+      format = inputStream.readInt();
+      binary = new byte[inputStream.readInt()];
+      inputStream.readFully(binary);
+    } catch (FileNotFoundException e) {
+      return 0;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read program binary " + file, e);
+      return 0;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(binary.length).order(ByteOrder.nativeOrder());
+    buffer.put(binary).position(0);
+    int program = GLES20.glCreateProgram();
+    GLES30.glProgramBinary(program, format, buffer, binary.length);
+    if (!isLinked(program)) {
+      // The driver may reject binaries at any time, e.g. after an update.
+      Log.i(TAG, "Driver rejected program binary " + file.getName());
+      GLES20.glDeleteProgram(program);
+      // Clear any error from the rejected binary.
+      while (GLES20.glGetError() != GLES20.GL_NO_ERROR) {}
+      return 0;
+    }
+    return program;
+  }
+
+  private static void saveBinary(File file, byte[] sourceHash, int program) throws IOException {
+    int[] length = new int[1];
+    GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+    if (length[0] <= 0) {
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+    int[] format = new int[1];
+    GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, buffer);
+    byte[] binary = new byte[length[0]];
+    buffer.get(binary);
+
+    File directory = file.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    // Write to a temporary file first, so a crash never leaves a truncated entry behind.
+    File tempFile = new File(directory, file.getName() + ".tmp");
+    try (DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(tempFile))) {
+      outputStream.write(sourceHash);
+      outputStream.writeInt(format[0]);
+      outputStream.writeInt(binary.length);
+      outputStream.write(binary);
+    }
+    if (!tempFile.renameTo(file)) {
+      tempFile.delete();
+      throw new IOException("Cannot rename " + tempFile);
+    }
+  }
+
+  private static boolean isLinked(int program) {
+    int[] linkStatus = new int[1];
+    GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+    return linkStatus[0] == GLES20.GL_TRUE;
+  }
+
+  private static byte[] hash(String... values) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    for (String value : values) {
+      digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+      // Separates the values, so moving text from one value to the next changes the hash.
+      digest.update((byte) 0);
+    }
+    return digest.digest();
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(2 * bytes.length);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+}
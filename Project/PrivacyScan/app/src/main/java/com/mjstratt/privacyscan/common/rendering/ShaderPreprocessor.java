@@ -0,0 +1,154 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import android.content.Context;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns shader assets into source code, resolving {@code #include "file"} lines and adding
+ * #define values to the top.
+ *
+ * <p>Assets do not change while the app runs, so every asset is read and resolved once, and the
+ * final source of every combination of asset and #define values is kept. Asking for the same
+ * source again does no I/O and builds no strings. Include cycles are reported instead of
+ * recursing forever. Must only be used from one thread at a time, normally the GL thread.
+ */
+public final class ShaderPreprocessor {
+  private static final String INCLUDE_DIRECTIVE = "#include";
+
+  /** Asset name to its text with the includes resolved. */
+  private static final Map<String, String> resolvedAssets = new HashMap<>();
+  /** Asset name and #define values to the final source. */
+  private static final Map<String, String> sources = new HashMap<>();
+
+  private ShaderPreprocessor() {}
+
+  /**
+   * Returns the source code of a shader asset.
+   *
+   * @param filename The filename of the asset file.
+   * @param defineValuesMap The #define values to add to the top of the source, in iteration order.
+   * @throws IOException If an asset cannot be read, or includes itself.
+   */
+  public static String getSource(
+      Context context, String filename, Map<String, Integer> defineValuesMap) throws IOException {
+    String key = defineValuesMap.isEmpty() ? filename : filename + '\0' + defineValuesMap;
+    String source = sources.get(key);
+    if (source != null) {
+      return source;
+    }
+
+    String text = resolve(context, filename, new ArrayList<String>());
+    if (defineValuesMap.isEmpty()) {
+      source = text;
+    } else {
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<String, Integer> entry : defineValuesMap.entrySet()) {
+        sb.append("#define ").append(entry.getKey()).append(' ').append(entry.getValue());
+        sb.append('\n');
+      }
+      source = sb.append(text).toString();
+    }
+    sources.put(key, source);
+    return source;
+  }
+
+  /** Forgets all sources, e.g. to free their memory once all programs are linked. */
+  public static void clear() {
+    resolvedAssets.clear();
+    sources.clear();
+  }
+
+  /**
+   * Returns the text of an asset with its includes resolved.
+   *
+   * @param includeStack The assets being resolved, which include the next one.
+   */
+  private static String resolve(Context context, String filename, List<String> includeStack)
+      throws IOException {
+    String resolved = resolvedAssets.get(filename);
+    if (resolved != null) {
+      return resolved;
+    }
+    if (includeStack.contains(filename)) {
+      throw new IOException("Include cycle: " + includeStack + " includes " + filename);
+    }
+    includeStack.add(filename);
+
+    String text = readAsset(context, filename);
+    StringBuilder sb = new StringBuilder(text.length());
+    int lineStart = 0;
+    while (lineStart < text.length()) {
+      int lineEnd = text.indexOf('\n', lineStart);
+      if (lineEnd < 0) {
+        lineEnd = text.length();
+      }
+      String includeFilename = getIncludeFilename(text, lineStart, lineEnd);
+      if (includeFilename != null) {
+        sb.append(resolve(context, includeFilename, includeStack));
+      } else {
+        sb.append(text, lineStart, lineEnd).append('\n');
+      }
+      lineStart = lineEnd + 1;
+    }
+
+    includeStack.remove(includeStack.size() - 1);
+    resolved = sb.toString();
+    resolvedAssets.put(filename, resolved);
+    return resolved;
+  }
+
+  /** Returns the file named by an {@code #include} line, or null for any other line. */
+  private static String getIncludeFilename(String text, int lineStart, int lineEnd) {
+    int nameStart = lineStart + INCLUDE_DIRECTIVE.length();
+    if (!text.startsWith(INCLUDE_DIRECTIVE, lineStart)
+        || (nameStart < lineEnd && text.charAt(nameStart) != ' ')) {
+      return null;
+    }
+    nameStart++;
+    int nameEnd = text.indexOf(' ', nameStart);
+    if (nameEnd < 0 || nameEnd > lineEnd) {
+      nameEnd = lineEnd;
+    }
+    if (nameStart >= nameEnd) {
+      return "";
+    }
+    return text.substring(nameStart, nameEnd).replace("\"", "");
+  }
+
+  private static String readAsset(Context context, String filename) throws IOException {
+    try (InputStream inputStream = context.getAssets().open(filename);
+        Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+      StringBuilder sb = new StringBuilder(inputStream.available());
+      char[] buffer = new char[4096];
+      int count;
+      while ((count = reader.read(buffer)) != -1) {
+        sb.append(buffer, 0, count);
+      }
+      // Line endings are normalized to \n, as reading line by line did.
+      return sb.toString().replace("\r\n", "\n");
+    }
+  }
+}
@@ -18,10 +18,7 @@ package com.google.ar.core.examples.java.common.rendering;
 import android.content.Context;
 import android.opengl.GLES20;
 import android.util.Log;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -38,16 +35,29 @@ public final class ShaderUtil {
   public static int loadGLShader(
       String tag, Context context, int type, String filename, Map<String, Integer> defineValuesMap)
       throws IOException {
-    // Load shader source code.
-    String code = readShaderFileFromAssets(context, filename);
+    return compileGLShader(tag, type, readShaderSource(context, filename, defineValuesMap));
+  }
 
-    // Prepend any #define values specified during this run.
-    String defines = "";
-    for (Map.Entry<String, Integer> entry : defineValuesMap.entrySet()) {
-      defines += "#define " + entry.getKey() + " " + entry.getValue() + "\n";
-    }
-    code = defines + code;
+  /**
+   * Reads a shader asset, with its includes resolved and the #define values added to the top.
+   *
+   * @param filename The filename of the asset file.
+   * @param defineValuesMap The #define values to add to the top of the shader source code.
+   * @return The source code, as passed to {@code glShaderSource}.
+   */
+  public static String readShaderSource(
+      Context context, String filename, Map<String, Integer> defineValuesMap) throws IOException {
+    return ShaderPreprocessor.getSource(context, filename, defineValuesMap);
+  }
 
+  /**
+   * Compiles shader source code into an OpenGL ES shader.
+   *
+   * @param type The type of shader we will be creating.
+   * @param code The source code of the shader.
+   * @return The shader object handler.
+   */
+  public static int compileGLShader(String tag, int type, String code) {
     // Compiles shader code.
     int shader = GLES20.glCreateShader(type);
     GLES20.glShaderSource(shader, code);
@@ -97,34 +107,5 @@ public final class ShaderUtil {
     }
   }
 
-  /**
-   * Converts a raw shader file into a string.
-   *
-   * @param filename The filename of the shader file about to be turned into a shader.
-   * @return The context of the text file, or null in case of error.
-   */
-  private static String readShaderFileFromAssets(Context context, String filename)
-      throws IOException {
-    try (InputStream inputStream = context.getAssets().open(filename);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-      StringBuilder sb = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        String[] tokens = line.split(" ", -1);
-        if (tokens[0].equals("#include")) {
-          String includeFilename = tokens[1];
-          includeFilename = includeFilename.replace("\"", "");
-          if (includeFilename.equals(filename)) {
-            throw new IOException("Do not include the calling file.");
-          }
-          sb.append(readShaderFileFromAssets(context, includeFilename));
-        } else {
-          sb.append(line).append("\n");
-        }
-      }
-      return sb.toString();
-    }
-  }
-
   private ShaderUtil() {}
 }
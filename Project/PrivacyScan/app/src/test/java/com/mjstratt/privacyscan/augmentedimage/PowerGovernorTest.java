@@ -0,0 +1,184 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import static com.mjstratt.privacyscan.augmentedimage.PowerGovernor.LEVEL_CRITICAL;
+import static com.mjstratt.privacyscan.augmentedimage.PowerGovernor.LEVEL_MINIMAL;
+import static com.mjstratt.privacyscan.augmentedimage.PowerGovernor.LEVEL_NOMINAL;
+import static com.mjstratt.privacyscan.augmentedimage.PowerGovernor.LEVEL_REDUCED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.bluetooth.le.ScanSettings;
+import android.os.PowerManager;
+import org.junit.Test;
+
+/**
+ * Tests {@link PowerGovernor} by replaying traces of thermal status and battery readings, and
+ * checking the level, and whether it changed, after every reading.
+ */
+public class PowerGovernorTest {
+  private static final int NONE = PowerManager.THERMAL_STATUS_NONE;
+  private static final int LIGHT = PowerManager.THERMAL_STATUS_LIGHT;
+  private static final int MODERATE = PowerManager.THERMAL_STATUS_MODERATE;
+  private static final int SEVERE = PowerManager.THERMAL_STATUS_SEVERE;
+  private static final int CRITICAL = PowerManager.THERMAL_STATUS_CRITICAL;
+  private static final int SHUTDOWN = PowerManager.THERMAL_STATUS_SHUTDOWN;
+
+  private static final boolean CHARGING = true;
+  private static final boolean ON_BATTERY = false;
+
+  /** A reading fed to the governor, and the level expected after it. */
+  private static final class Step {
+    final double seconds;
+    final int thermalStatus;
+    final int batteryPercent;
+    final boolean charging;
+    final int expectedLevel;
+
+    Step(double seconds, int thermalStatus, int batteryPercent, boolean charging, int level) {
+      this.seconds = seconds;
+      this.thermalStatus = thermalStatus;
+      this.batteryPercent = batteryPercent;
+      this.charging = charging;
+      this.expectedLevel = level;
+    }
+  }
+
+  private static Step at(
+      double seconds, int thermalStatus, int batteryPercent, boolean charging, int level) {
+    return new Step(seconds, thermalStatus, batteryPercent, charging, level);
+  }
+
+  @Test
+  public void thermalTrace_risesAtOnceAndFallsOneLevelPer30Seconds() {
+    replay(
+        at(0, NONE, 80, ON_BATTERY, LEVEL_NOMINAL),
+        at(5, LIGHT, 80, ON_BATTERY, LEVEL_NOMINAL),
+        at(10, MODERATE, 80, ON_BATTERY, LEVEL_REDUCED),
+        at(15, SEVERE, 80, ON_BATTERY, LEVEL_MINIMAL),
+        at(20, CRITICAL, 80, ON_BATTERY, LEVEL_CRITICAL),
+        at(25, SHUTDOWN, 80, ON_BATTERY, LEVEL_CRITICAL),
+        // Cooled down: the recovery delay starts at the first better reading.
+        at(30, NONE, 80, ON_BATTERY, LEVEL_CRITICAL),
+        at(45, NONE, 80, ON_BATTERY, LEVEL_CRITICAL),
+        at(59.9, NONE, 80, ON_BATTERY, LEVEL_CRITICAL),
+        at(60, NONE, 80, ON_BATTERY, LEVEL_MINIMAL),
+        // Each further step waits again from the previous one.
+        at(65, NONE, 80, ON_BATTERY, LEVEL_MINIMAL),
+        at(89.9, NONE, 80, ON_BATTERY, LEVEL_MINIMAL),
+        at(90, NONE, 80, ON_BATTERY, LEVEL_REDUCED),
+        at(119.9, LIGHT, 80, ON_BATTERY, LEVEL_REDUCED),
+        at(120, LIGHT, 80, ON_BATTERY, LEVEL_NOMINAL),
+        at(200, NONE, 80, ON_BATTERY, LEVEL_NOMINAL));
+  }
+
+  @Test
+  public void thermalTrace_readingAtCurrentLevelRestartsRecovery() {
+    replay(
+        at(0, SEVERE, 80, ON_BATTERY, LEVEL_MINIMAL),
+        at(5, NONE, 80, ON_BATTERY, LEVEL_MINIMAL),
+        at(30, NONE, 80, ON_BATTERY, LEVEL_MINIMAL),
+        // Back at the current level just before the step down: the delay starts over.
+        at(34, SEVERE, 80, ON_BATTERY, LEVEL_MINIMAL),
+        at(36, MODERATE, 80, ON_BATTERY, LEVEL_MINIMAL),
+        at(65, MODERATE, 80, ON_BATTERY, LEVEL_MINIMAL),
+        at(66, MODERATE, 80, ON_BATTERY, LEVEL_REDUCED),
+        // The target is reached, so no further step down.
+        at(200, MODERATE, 80, ON_BATTERY, LEVEL_REDUCED),
+        // A rise during recovery applies at once.
+        at(205, NONE, 80, ON_BATTERY, LEVEL_REDUCED),
+        at(210, CRITICAL, 80, ON_BATTERY, LEVEL_CRITICAL));
+  }
+
+  @Test
+  public void batteryTrace_shedsWorkOnLowBatteryUnlessCharging() {
+    replay(
+        at(0, NONE, 50, ON_BATTERY, LEVEL_NOMINAL),
+        at(5, NONE, 16, ON_BATTERY, LEVEL_NOMINAL),
+        at(10, NONE, 15, ON_BATTERY, LEVEL_REDUCED),
+        at(15, NONE, 6, ON_BATTERY, LEVEL_REDUCED),
+        at(20, NONE, 5, ON_BATTERY, LEVEL_MINIMAL),
+        // The battery alone never asks for the lowest camera resolution.
+        at(25, NONE, 1, ON_BATTERY, LEVEL_MINIMAL),
+        // Plugged in: recovers like a cooling device.
+        at(30, NONE, 1, CHARGING, LEVEL_MINIMAL),
+        at(60, NONE, 2, CHARGING, LEVEL_REDUCED),
+        at(90, NONE, 3, CHARGING, LEVEL_NOMINAL));
+  }
+
+  @Test
+  public void mixedTrace_usesTheWorseOfThermalAndBattery() {
+    replay(
+        at(0, MODERATE, 50, ON_BATTERY, LEVEL_REDUCED),
+        at(5, MODERATE, 5, ON_BATTERY, LEVEL_MINIMAL),
+        // Cooler, but the battery still asks for the same level.
+        at(10, NONE, 5, ON_BATTERY, LEVEL_MINIMAL),
+        at(100, NONE, 5, ON_BATTERY, LEVEL_MINIMAL),
+        at(105, CRITICAL, 5, CHARGING, LEVEL_CRITICAL),
+        at(110, NONE, 5, CHARGING, LEVEL_CRITICAL),
+        at(140, NONE, 5, CHARGING, LEVEL_MINIMAL));
+  }
+
+  @Test
+  public void levels_mapToWorkShedding() {
+    PowerGovernor governor = new PowerGovernor();
+    assertEquals(0, governor.getRenderIntervalMs());
+    assertEquals(ScanSettings.SCAN_MODE_LOW_POWER, governor.getBleScanMode());
+    assertTrue(governor.isOptionalStagesEnabled());
+    assertFalse(governor.isCameraResolutionReduced());
+
+    governor.update(0, MODERATE, 100, CHARGING);
+    assertEquals(33, governor.getRenderIntervalMs());
+    assertEquals(ScanSettings.SCAN_MODE_LOW_POWER, governor.getBleScanMode());
+    assertTrue(governor.isOptionalStagesEnabled());
+    assertFalse(governor.isCameraResolutionReduced());
+
+    governor.update(0, SEVERE, 100, CHARGING);
+    assertEquals(66, governor.getRenderIntervalMs());
+    assertEquals(ScanSettings.SCAN_MODE_OPPORTUNISTIC, governor.getBleScanMode());
+    assertFalse(governor.isOptionalStagesEnabled());
+    assertFalse(governor.isCameraResolutionReduced());
+
+    governor.update(0, CRITICAL, 100, CHARGING);
+    assertEquals(100, governor.getRenderIntervalMs());
+    assertEquals(ScanSettings.SCAN_MODE_OPPORTUNISTIC, governor.getBleScanMode());
+    assertFalse(governor.isOptionalStagesEnabled());
+    assertTrue(governor.isCameraResolutionReduced());
+  }
+
+  /**
+   * Feeds every step to a new governor, and checks the level after it, and that {@code update}
+   * reports a change exactly when the level changed. Times start at an arbitrary clock value, as
+   * {@link System#nanoTime()} does.
+   */
+  private static void replay(Step... steps) {
+    long startNanos = 123456789L;
+    PowerGovernor governor = new PowerGovernor();
+    int level = governor.getLevel();
+    for (Step step : steps) {
+      long nowNanos = startNanos + (long) (step.seconds * 1e9);
+      boolean changed =
+          governor.update(nowNanos, step.thermalStatus, step.batteryPercent, step.charging);
+
+      String at = "at " + step.seconds + " s";
+      assertEquals(at, step.expectedLevel, governor.getLevel());
+      assertEquals(at, step.expectedLevel != level, changed);
+      level = step.expectedLevel;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Compares the per-frame bookkeeping of {@link TrackedImageStore} with the {@code HashMap<Integer,
+ * Pair<AugmentedImage, Anchor>>} it replaced, with about 500 images live.
+ *
+ * <p>Each simulated frame updates every live image, as {@code updateAugmentedImages} does, stops
+ * and re-detects a few, then walks the live images as {@code drawAugmentedImages} does. The times
+ * are printed rather than asserted, as they depend on the machine; the test only checks that both
+ * versions saw the same images.
+ */
+public class TrackedImageStoreBenchmark {
+  private static final int DATABASE_SIZE = 1000;
+  private static final int LIVE_IMAGES = 500;
+  private static final int CHURN_PER_FRAME = 8;
+  private static final int WARMUP_FRAMES = 2000;
+  private static final int MEASURED_FRAMES = 5000;
+
+  /** Same shape as {@code android.util.Pair}, which is only a stub in JVM tests. */
+  private static final class Pair<F, S> {
+    final F first;
+    final S second;
+
+    Pair(F first, S second) {
+      this.first = first;
+      this.second = second;
+    }
+  }
+
+  /** Stands in for the image and anchor objects, which need an ARCore session. */
+  private static final class Image {
+    final int index;
+
+    Image(int index) {
+      this.index = index;
+    }
+  }
+
+  @Test
+  public void frameLoop_storeVersusHashMap() {
+    Image[] images = new Image[DATABASE_SIZE];
+    for (int i = 0; i < DATABASE_SIZE; ++i) {
+      images[i] = new Image(i);
+    }
+    int[][] frames = createFrames();
+
+    TrackedImageStore store = new TrackedImageStore();
+    store.ensureCapacity(DATABASE_SIZE);
+    Map<Integer, Pair<Image, Object>> map = new HashMap<>();
+
+    runStore(store, frames, WARMUP_FRAMES);
+    runMap(map, images, frames, WARMUP_FRAMES);
+
+    long start = System.nanoTime();
+    long storeChecksum = runStore(store, frames, MEASURED_FRAMES);
+    long storeNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    long mapChecksum = runMap(map, images, frames, MEASURED_FRAMES);
+    long mapNanos = System.nanoTime() - start;
+
+    assertEquals(mapChecksum, storeChecksum);
+    System.out.println(
+        String.format(
+            Locale.ROOT,
+            "%d live images: TrackedImageStore %.1f us/frame, HashMap<Integer, Pair> %.1f us/frame"
+                + " (%.1fx)",
+            LIVE_IMAGES,
+            storeNanos / 1000.0 / MEASURED_FRAMES,
+            mapNanos / 1000.0 / MEASURED_FRAMES,
+            (double) mapNanos / storeNanos));
+  }
+
+  /**
+   * Returns, for each frame of a repeating sequence, the images that stop and are detected again.
+   * Live images are {@code 0 .. LIVE_IMAGES - 1} at the start of every frame.
+   */
+  private static int[][] createFrames() {
+    Random random = new Random(1);
+    int[][] frames = new int[64][CHURN_PER_FRAME];
+    for (int[] frame : frames) {
+      for (int i = 0; i < CHURN_PER_FRAME; ++i) {
+        frame[i] = random.nextInt(LIVE_IMAGES);
+      }
+    }
+    return frames;
+  }
+
+  private static long runStore(TrackedImageStore store, int[][] frames, int frameCount) {
+    long checksum = 0;
+    for (int frame = 0; frame < frameCount; ++frame) {
+      for (int index = 0; index < LIVE_IMAGES; ++index) {
+        store.put(index, null, null, TrackedImageStore.STATE_FULL_TRACKING);
+      }
+      for (int index : frames[frame % frames.length]) {
+        store.remove(index);
+      }
+      for (int index : frames[frame % frames.length]) {
+        store.put(index, null, null, TrackedImageStore.STATE_FULL_TRACKING);
+      }
+      for (int i = 0; i < store.size(); ++i) {
+        int index = store.indexAt(i);
+        if (store.getState(index) == TrackedImageStore.STATE_FULL_TRACKING
+            && store.getAnchor(index) == null) {
+          checksum += index;
+        }
+      }
+    }
+    return checksum;
+  }
+
+  private static long runMap(
+      Map<Integer, Pair<Image, Object>> map, Image[] images, int[][] frames, int frameCount) {
+    long checksum = 0;
+    for (int frame = 0; frame < frameCount; ++frame) {
+      for (int index = 0; index < LIVE_IMAGES; ++index) {
+        if (!map.containsKey(index)) {
+          map.put(index, new Pair<Image, Object>(images[index], null));
+        }
+      }
+      for (int index : frames[frame % frames.length]) {
+        map.remove(index);
+      }
+      for (int index : frames[frame % frames.length]) {
+        if (!map.containsKey(index)) {
+          map.put(index, new Pair<Image, Object>(images[index], null));
+        }
+      }
+      for (Pair<Image, Object> pair : map.values()) {
+        Image image = pair.first;
+        if (map.get(image.index).second == null) {
+          checksum += image.index;
+        }
+      }
+    }
+    return checksum;
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.augmentedimage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link TrackedImageStore}. ARCore images and anchors cannot be created without a session,
+ * so entries are told apart by their state, and images and anchors are {@code null}.
+ */
+public class TrackedImageStoreTest {
+  private static final int CAPACITY = 16;
+
+  private TrackedImageStore store;
+
+  @Before
+  public void setUp() {
+    store = new TrackedImageStore();
+    store.ensureCapacity(CAPACITY);
+  }
+
+  @Test
+  public void put_addsEntryOnce() {
+    store.put(3, null, null, TrackedImageStore.STATE_DETECTED);
+    store.put(3, null, null, TrackedImageStore.STATE_FULL_TRACKING);
+
+    assertEquals(1, store.size());
+    assertEquals(3, store.indexAt(0));
+    assertTrue(store.contains(3));
+    assertEquals(TrackedImageStore.STATE_FULL_TRACKING, store.getState(3));
+  }
+
+  @Test
+  public void put_ignoresIndicesOutsideCapacity() {
+    store.put(-1, null, null, TrackedImageStore.STATE_DETECTED);
+    store.put(CAPACITY, null, null, TrackedImageStore.STATE_DETECTED);
+
+    assertEquals(0, store.size());
+    assertFalse(store.contains(-1));
+    assertFalse(store.contains(CAPACITY));
+  }
+
+  @Test
+  public void iterate_visitsEntriesInInsertionOrder() {
+    store.put(7, null, null, TrackedImageStore.STATE_DETECTED);
+    store.put(2, null, null, TrackedImageStore.STATE_FULL_TRACKING);
+    store.put(11, null, null, TrackedImageStore.STATE_LAST_KNOWN_POSE);
+
+    assertArrayEquals(new int[] {7, 2, 11}, activeIndices());
+  }
+
+  @Test
+  public void remove_movesLastEntryIntoItsPlace() {
+    store.put(7, null, null, TrackedImageStore.STATE_DETECTED);
+    store.put(2, null, null, TrackedImageStore.STATE_FULL_TRACKING);
+    store.put(11, null, null, TrackedImageStore.STATE_LAST_KNOWN_POSE);
+    store.put(5, null, null, TrackedImageStore.STATE_DETECTED);
+
+    store.remove(2);
+
+    assertArrayEquals(new int[] {7, 5, 11}, activeIndices());
+    assertFalse(store.contains(2));
+    assertEquals(0, store.getState(2));
+    assertEquals(TrackedImageStore.STATE_DETECTED, store.getState(5));
+  }
+
+  @Test
+  public void remove_lastEntry() {
+    store.put(7, null, null, TrackedImageStore.STATE_DETECTED);
+    store.put(2, null, null, TrackedImageStore.STATE_FULL_TRACKING);
+
+    store.remove(2);
+
+    assertArrayEquals(new int[] {7}, activeIndices());
+  }
+
+  @Test
+  public void remove_ignoresMissingEntries() {
+    store.put(7, null, null, TrackedImageStore.STATE_DETECTED);
+
+    store.remove(2);
+    store.remove(-1);
+    store.remove(CAPACITY);
+
+    assertArrayEquals(new int[] {7}, activeIndices());
+  }
+
+  @Test
+  public void remove_duringIterationVisitsEveryEntryOnce() {
+    for (int index = 0; index < 10; ++index) {
+      int state =
+          index % 2 == 0
+              ? TrackedImageStore.STATE_DETECTED
+              : TrackedImageStore.STATE_FULL_TRACKING;
+      store.put(index, null, null, state);
+    }
+
+    // Steps back one position after a removal, as the class documentation asks.
+    Set<Integer> visited = new HashSet<>();
+    for (int i = 0; i < store.size(); ++i) {
+      int index = store.indexAt(i);
+      assertTrue("visited twice: " + index, visited.add(index));
+      if (store.getState(index) == TrackedImageStore.STATE_DETECTED) {
+        store.remove(index);
+        --i;
+      }
+    }
+
+    assertEquals(10, visited.size());
+    int[] remaining = activeIndices();
+    Arrays.sort(remaining);
+    assertArrayEquals(new int[] {1, 3, 5, 7, 9}, remaining);
+  }
+
+  @Test
+  public void remove_thenPutAgainAppends() {
+    store.put(7, null, null, TrackedImageStore.STATE_DETECTED);
+    store.put(2, null, null, TrackedImageStore.STATE_DETECTED);
+    store.remove(7);
+
+    store.put(7, null, null, TrackedImageStore.STATE_FULL_TRACKING);
+
+    assertArrayEquals(new int[] {2, 7}, activeIndices());
+    assertEquals(TrackedImageStore.STATE_FULL_TRACKING, store.getState(7));
+  }
+
+  @Test
+  public void clear_removesEverything() {
+    store.put(7, null, null, TrackedImageStore.STATE_DETECTED);
+    store.put(2, null, null, TrackedImageStore.STATE_DETECTED);
+
+    store.clear();
+
+    assertEquals(0, store.size());
+    assertFalse(store.contains(7));
+    assertFalse(store.contains(2));
+  }
+
+  @Test
+  public void ensureCapacity_keepsEntries() {
+    store.put(7, null, null, TrackedImageStore.STATE_LAST_KNOWN_POSE);
+
+    store.ensureCapacity(2 * CAPACITY);
+    store.put(CAPACITY + 1, null, null, TrackedImageStore.STATE_DETECTED);
+
+    assertArrayEquals(new int[] {7, CAPACITY + 1}, activeIndices());
+    assertEquals(TrackedImageStore.STATE_LAST_KNOWN_POSE, store.getState(7));
+    assertFalse(store.contains(CAPACITY));
+  }
+
+  @Test
+  public void countInState_countsLiveEntriesOnly() {
+    store.put(7, null, null, TrackedImageStore.STATE_FULL_TRACKING);
+    store.put(2, null, null, TrackedImageStore.STATE_LAST_KNOWN_POSE);
+    store.put(11, null, null, TrackedImageStore.STATE_FULL_TRACKING);
+    store.put(5, null, null, TrackedImageStore.STATE_FULL_TRACKING);
+    store.remove(11);
+
+    assertEquals(2, store.countInState(TrackedImageStore.STATE_FULL_TRACKING));
+    assertEquals(1, store.countInState(TrackedImageStore.STATE_LAST_KNOWN_POSE));
+    assertEquals(0, store.countInState(TrackedImageStore.STATE_DETECTED));
+  }
+
+  @Test
+  public void randomOperations_matchASet() {
+    Random random = new Random(42);
+    Set<Integer> expected = new HashSet<>();
+    for (int step = 0; step < 10000; ++step) {
+      int index = random.nextInt(CAPACITY);
+      if (random.nextBoolean()) {
+        store.put(index, null, null, TrackedImageStore.STATE_DETECTED);
+        expected.add(index);
+      } else {
+        store.remove(index);
+        expected.remove(index);
+      }
+
+      assertEquals(expected.size(), store.size());
+      Set<Integer> actual = new HashSet<>();
+      for (int activeIndex : activeIndices()) {
+        actual.add(activeIndex);
+      }
+      assertEquals(expected, actual);
+    }
+  }
+
+  private int[] activeIndices() {
+    int[] indices = new int[store.size()];
+    for (int i = 0; i < indices.length; ++i) {
+      indices[i] = store.indexAt(i);
+    }
+    return indices;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+/** Tests {@link SpscRing}, on one thread and between a producer and a consumer thread. */
+public class SpscRingTest {
+  private static final int STRESS_EVENTS = 5000000;
+  private static final int STRESS_CAPACITY = 1024;
+
+  /** Event slot, with a payload spread over several fields to check that all of it is visible. */
+  private static final class Event {
+    long sequence;
+    long payload;
+    final int[] words = new int[4];
+  }
+
+  @Test
+  public void capacity_isRoundedUpToPowerOfTwo() {
+    assertEquals(8, new SpscRing<>(8, Event::new).capacity());
+    assertEquals(8, new SpscRing<>(5, Event::new).capacity());
+    assertEquals(1024, new SpscRing<>(1000, Event::new).capacity());
+  }
+
+  @Test
+  public void claim_returnsNullWhenFull() {
+    SpscRing<Event> ring = new SpscRing<>(4, Event::new);
+    for (int i = 0; i < 4; ++i) {
+      assertNotNull(ring.claim());
+      ring.publish();
+    }
+
+    assertNull(ring.claim());
+
+    ring.drain(event -> {});
+    assertNotNull(ring.claim());
+  }
+
+  @Test
+  public void claim_withoutPublishReturnsSameSlot() {
+    SpscRing<Event> ring = new SpscRing<>(4, Event::new);
+
+    Event first = ring.claim();
+
+    assertSame(first, ring.claim());
+    assertTrue(ring.isEmpty());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void publish_withoutClaimThrows() {
+    new SpscRing<>(4, Event::new).publish();
+  }
+
+  @Test
+  public void drain_passesEventsInOrderAndReusesSlots() {
+    SpscRing<Event> ring = new SpscRing<>(4, Event::new);
+    List<Long> drained = new ArrayList<>();
+    long next = 0;
+    for (int round = 0; round < 5; ++round) {
+      for (int i = 0; i < 3; ++i) {
+        Event event = ring.claim();
+        event.sequence = next++;
+        ring.publish();
+      }
+      assertFalse(ring.isEmpty());
+
+      assertEquals(3, ring.drain(event -> drained.add(event.sequence)));
+      assertTrue(ring.isEmpty());
+    }
+
+    assertEquals(15, drained.size());
+    for (int i = 0; i < drained.size(); ++i) {
+      assertEquals(i, (long) drained.get(i));
+    }
+    assertEquals(0, ring.drain(event -> {}));
+  }
+
+  /**
+   * Streams millions of events from a producer thread to a consumer thread draining in batches,
+   * and checks that every event arrives once, in order, with the payload written before it was
+   * published. Prints the throughput.
+   */
+  @Test(timeout = 120000)
+  public void producerAndConsumerThreads_seeEveryEventInOrder() throws Exception {
+    SpscRing<Event> ring = new SpscRing<>(STRESS_CAPACITY, Event::new);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    Thread producer =
+        new Thread(
+            () -> {
+              for (long sequence = 0; sequence < STRESS_EVENTS; ++sequence) {
+                Event event;
+                while ((event = ring.claim()) == null) {
+                  if (failure.get() != null) {
+                    return;
+                  }
+                  Thread.yield();
+                }
+                event.sequence = sequence;
+                event.payload = payloadOf(sequence);
+                for (int w = 0; w < event.words.length; ++w) {
+                  event.words[w] = (int) sequence + w;
+                }
+                ring.publish();
+              }
+            },
+            "producer");
+
+    Consumer consumer = new Consumer();
+    long startNanos = System.nanoTime();
+    producer.start();
+    try {
+      while (consumer.received < STRESS_EVENTS) {
+        int count = ring.drain(consumer);
+        if (count == 0) {
+          Thread.yield();
+        } else {
+          consumer.batches++;
+          consumer.largestBatch = Math.max(consumer.largestBatch, count);
+        }
+      }
+    } catch (Throwable t) {
+      failure.set(t);
+      throw t;
+    } finally {
+      producer.join();
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+
+    assertEquals(STRESS_EVENTS, consumer.received);
+    assertTrue(ring.isEmpty());
+    assertTrue("Events were only drained one at a time", consumer.largestBatch > 1);
+    System.out.println(
+        String.format(
+            Locale.ROOT,
+            "SpscRing: %d events in %d ms, %.1f M events/s, %d drains, largest %d",
+            STRESS_EVENTS,
+            elapsedNanos / 1000000,
+            STRESS_EVENTS * 1000.0 / elapsedNanos,
+            consumer.batches,
+            consumer.largestBatch));
+  }
+
+  private static long payloadOf(long sequence) {
+    return sequence * 0x9E3779B97F4A7C15L;
+  }
+
+  /** Checks every drained event against the one expected next. Consumer thread only. */
+  private static final class Consumer implements SpscRing.Consumer<Event> {
+    long received;
+    long batches;
+    int largestBatch;
+
+    @Override
+    public void accept(Event event) {
+      assertEquals(received, event.sequence);
+      assertEquals(payloadOf(received), event.payload);
+      for (int w = 0; w < event.words.length; ++w) {
+        assertEquals((int) received + w, event.words[w]);
+      }
+      received++;
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.build;
+
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjData;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjUtils;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Converts every Wavefront OBJ file in a directory into a binary mesh that can be uploaded to
+ * OpenGL without parsing.
+ *
+ * <p>A binary mesh is little-endian and starts with a {@link #HEADER_SIZE} byte header:
+ *
+ * <pre>
+ *   int   magic, {@link #MAGIC}
+ *   int   version, {@link #VERSION}
+ *   int   vertexCount
+ *   int   indexCount
+ *   float minX, minY, minZ, maxX, maxY, maxZ   bounds of the positions
+ * </pre>
+ *
+ * followed by {@code vertexCount} interleaved vertices of {@link #FLOATS_PER_VERTEX} floats
+ * (position xyz, normal xyz, texture coordinates uv) and {@code indexCount} unsigned short triangle
+ * indices. The runtime side is {@code BinaryMesh} in the app.
+ */
+public abstract class CompileMeshesTask extends DefaultTask {
+  public static final int MAGIC = 0x48534D50; // "PMSH" in little-endian byte order.
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 40;
+  public static final int FLOATS_PER_VERTEX = 8;
+
+  private static final int MAX_VERTICES = 65536;
+
+  /** Directory of the OBJ files. */
+  @InputDirectory
+  @PathSensitive(PathSensitivity.RELATIVE)
+  public abstract DirectoryProperty getSourceDir();
+
+  /** Directory to write a {@code .mesh} file to for every OBJ file. */
+  @OutputDirectory
+  public abstract DirectoryProperty getOutputDir();
+
+  @TaskAction
+  public void compile() throws IOException {
+    File sourceDir = getSourceDir().get().getAsFile();
+    File outputDir = getOutputDir().get().getAsFile();
+    File[] objFiles = sourceDir.listFiles((dir, name) -> name.endsWith(".obj"));
+    if (objFiles == null) {
+      return;
+    }
+    for (File objFile : objFiles) {
+      String name = objFile.getName();
+      File meshFile = new File(outputDir, name.substring(0, name.length() - 4) + ".mesh");
+      compileMesh(objFile, meshFile);
+    }
+  }
+
+  private static void compileMesh(File objFile, File meshFile) throws IOException {
+    Obj obj;
+    try (InputStream inputStream = new FileInputStream(objFile)) {
+      obj = ObjReader.read(inputStream);
+    }
+
+    // Triangulate, and convert to single-indexed data with unambiguous texture coordinates and
+    // normals, as the app did at startup.
+    obj = ObjUtils.convertToRenderable(obj);
+
+    int vertexCount = obj.getNumVertices();
+    if (vertexCount > MAX_VERTICES) {
+      throw new GradleException(
+          objFile + " has " + vertexCount + " vertices, more than short indices can address");
+    }
+    IntBuffer indices = ObjData.getFaceVertexIndices(obj, 3);
+    FloatBuffer positions = ObjData.getVertices(obj);
+    FloatBuffer normals = ObjData.getNormals(obj);
+    FloatBuffer texCoords = ObjData.getTexCoords(obj, 2);
+    boolean hasNormals = normals.limit() >= 3 * vertexCount;
+    boolean hasTexCoords = texCoords.limit() >= 2 * vertexCount;
+    int indexCount = indices.limit();
+
+    ByteBuffer out =
+        ByteBuffer.allocate(
+                HEADER_SIZE + 4 * FLOATS_PER_VERTEX * vertexCount + 2 * indexCount)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+    float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+    for (int v = 0; v < vertexCount; ++v) {
+      for (int c = 0; c < 3; ++c) {
+        min[c] = Math.min(min[c], positions.get(3 * v + c));
+        max[c] = Math.max(max[c], positions.get(3 * v + c));
+      }
+    }
+    if (vertexCount == 0) {
+      min = new float[3];
+      max = new float[3];
+    }
+
+    out.putInt(MAGIC).putInt(VERSION).putInt(vertexCount).putInt(indexCount);
+    for (int c = 0; c < 3; ++c) {
+      out.putFloat(min[c]);
+    }
+    for (int c = 0; c < 3; ++c) {
+      out.putFloat(max[c]);
+    }
+
+    for (int v = 0; v < vertexCount; ++v) {
+      for (int c = 0; c < 3; ++c) {
+        out.putFloat(positions.get(3 * v + c));
+      }
+      for (int c = 0; c < 3; ++c) {
+        out.putFloat(hasNormals ? normals.get(3 * v + c) : 0.0f);
+      }
+      for (int c = 0; c < 2; ++c) {
+        out.putFloat(hasTexCoords ? texCoords.get(2 * v + c) : 0.0f);
+      }
+    }
+    while (indices.hasRemaining()) {
+      out.putShort((short) indices.get());
+    }
+
+    try (OutputStream outputStream = new FileOutputStream(meshFile)) {
+      outputStream.write(out.array());
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.build;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import javax.imageio.ImageIO;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Converts every PNG file in a directory into a KTX file of ETC2 RGBA8 / EAC compressed blocks,
+ * with a full mip chain, that can be uploaded to OpenGL ES 3 with {@code glCompressedTexImage2D}.
+ *
+ * <p>Colors are premultiplied by alpha before the mipmaps are made and compressed, which matches
+ * how the app uploaded the decoded PNGs. The files follow the KTX 1.1 format, little-endian, with
+ * no key/value data. The runtime side is {@code KtxTexture} in the app.
+ */
+public abstract class CompileTexturesTask extends DefaultTask {
+  public static final int GL_COMPRESSED_RGBA8_ETC2_EAC = 0x9278;
+  private static final int GL_RGBA = 0x1908;
+
+  private static final byte[] KTX_IDENTIFIER = {
+    (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+  };
+  private static final int KTX_HEADER_SIZE = 64;
+  private static final int KTX_ENDIANNESS = 0x04030201;
+
+  /** Directory of the PNG files. */
+  @InputDirectory
+  @PathSensitive(PathSensitivity.RELATIVE)
+  public abstract DirectoryProperty getSourceDir();
+
+  /** Directory to write a {@code .ktx} file to for every PNG file. */
+  @OutputDirectory
+  public abstract DirectoryProperty getOutputDir();
+
+  @TaskAction
+  public void compile() throws IOException {
+    File sourceDir = getSourceDir().get().getAsFile();
+    File outputDir = getOutputDir().get().getAsFile();
+    File[] pngFiles = sourceDir.listFiles((dir, name) -> name.endsWith(".png"));
+    if (pngFiles == null) {
+      return;
+    }
+    for (File pngFile : pngFiles) {
+      String name = pngFile.getName();
+      File ktxFile = new File(outputDir, name.substring(0, name.length() - 4) + ".ktx");
+      compileTexture(pngFile, ktxFile);
+    }
+  }
+
+  private static void compileTexture(File pngFile, File ktxFile) throws IOException {
+    BufferedImage image = ImageIO.read(pngFile);
+    if (image == null) {
+      throw new GradleException("Cannot decode " + pngFile);
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+
+    // Level 0, premultiplied.
+    byte[] rgba = new byte[4 * width * height];
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        int argb = image.getRGB(x, y);
+        int alpha = argb >>> 24;
+        int offset = 4 * (y * width + x);
+        rgba[offset] = (byte) premultiply((argb >> 16) & 0xFF, alpha);
+        rgba[offset + 1] = (byte) premultiply((argb >> 8) & 0xFF, alpha);
+        rgba[offset + 2] = (byte) premultiply(argb & 0xFF, alpha);
+        rgba[offset + 3] = (byte) alpha;
+      }
+    }
+
+    List<byte[]> levels = new ArrayList<>();
+    int levelWidth = width;
+    int levelHeight = height;
+    while (true) {
+      levels.add(Etc2Encoder.encode(rgba, levelWidth, levelHeight));
+      if (levelWidth == 1 && levelHeight == 1) {
+        break;
+      }
+      int nextWidth = Math.max(1, levelWidth / 2);
+      int nextHeight = Math.max(1, levelHeight / 2);
+      rgba = downsample(rgba, levelWidth, levelHeight, nextWidth, nextHeight);
+      levelWidth = nextWidth;
+      levelHeight = nextHeight;
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(KTX_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.put(KTX_IDENTIFIER);
+    header.putInt(KTX_ENDIANNESS);
+    header.putInt(0); // glType, 0 for compressed formats.
+    header.putInt(1); // glTypeSize
+    header.putInt(0); // glFormat, 0 for compressed formats.
+    header.putInt(GL_COMPRESSED_RGBA8_ETC2_EAC);
+    header.putInt(GL_RGBA);
+    header.putInt(width);
+    header.putInt(height);
+    header.putInt(0); // pixelDepth
+    header.putInt(0); // numberOfArrayElements
+    header.putInt(1); // numberOfFaces
+    header.putInt(levels.size());
+    header.putInt(0); // bytesOfKeyValueData
+
+    ByteBuffer imageSize = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    try (OutputStream outputStream = new FileOutputStream(ktxFile)) {
+      outputStream.write(header.array());
+      for (byte[] level : levels) {
+        // Levels are a multiple of 16 bytes, so need no padding.
+        imageSize.putInt(0, level.length);
+        outputStream.write(imageSize.array());
+        outputStream.write(level);
+      }
+    }
+  }
+
+  private static int premultiply(int color, int alpha) {
+    return (color * alpha + 127) / 255;
+  }
+
+  /** Halves an image with a box filter; odd rows and columns are folded into their neighbours. */
+  private static byte[] downsample(
+      byte[] rgba, int width, int height, int nextWidth, int nextHeight) {
+    byte[] next = new byte[4 * nextWidth * nextHeight];
+    for (int y = 0; y < nextHeight; ++y) {
+      int y0 = y * height / nextHeight;
+      int y1 = Math.max(y0 + 1, (y + 1) * height / nextHeight);
+      for (int x = 0; x < nextWidth; ++x) {
+        int x0 = x * width / nextWidth;
+        int x1 = Math.max(x0 + 1, (x + 1) * width / nextWidth);
+        int count = (y1 - y0) * (x1 - x0);
+        for (int c = 0; c < 4; ++c) {
+          int sum = 0;
+          for (int sy = y0; sy < y1; ++sy) {
+            for (int sx = x0; sx < x1; ++sx) {
+              sum += rgba[4 * (sy * width + sx) + c] & 0xFF;
+            }
+          }
+          next[4 * (y * nextWidth + x) + c] = (byte) ((sum + count / 2) / count);
+        }
+      }
+    }
+    return next;
+  }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mjstratt.privacyscan.build;
+
+import java.util.stream.IntStream;
+
+/**
+ * Encodes RGBA images as ETC2 RGBA8 with EAC alpha ({@code GL_COMPRESSED_RGBA8_ETC2_EAC}), 16
+ * bytes per 4x4 block: an EAC alpha block followed by an ETC2 color block.
+ *
+ * <p>Color blocks only use the individual and differential modes that ETC2 shares with ETC1,
+ * searched exhaustively over both block orientations and all intensity tables. That is not the
+ * best quality an ETC2 encoder can reach, but it is simple and fast enough to run on every build.
+ */
+final class Etc2Encoder {
+  /** Bytes per encoded 4x4 block. */
+  static final int BLOCK_SIZE = 16;
+
+  /** ETC1/ETC2 intensity modifier tables; the negative values are the same, negated. */
+  private static final int[][] COLOR_MODIFIERS = {
+    {2, 8}, {5, 17}, {9, 29}, {13, 42}, {18, 60}, {24, 80}, {33, 106}, {47, 183}
+  };
+
+  /** EAC modifier tables. */
+  private static final int[][] ALPHA_MODIFIERS = {
+    {-3, -6, -9, -15, 2, 5, 8, 14},
+    {-3, -7, -10, -13, 2, 6, 9, 12},
+    {-2, -5, -8, -13, 1, 4, 7, 12},
+    {-2, -4, -6, -13, 1, 3, 5, 12},
+    {-3, -6, -8, -12, 2, 5, 7, 11},
+    {-3, -7, -9, -11, 2, 6, 8, 10},
+    {-4, -7, -8, -11, 3, 6, 7, 10},
+    {-3, -5, -8, -11, 2, 4, 7, 10},
+    {-2, -6, -8, -10, 1, 5, 7, 9},
+    {-2, -5, -8, -10, 1, 4, 7, 9},
+    {-2, -4, -8, -10, 1, 3, 7, 9},
+    {-2, -5, -7, -10, 1, 4, 6, 9},
+    {-3, -4, -7, -10, 2, 3, 6, 9},
+    {-1, -2, -3, -10, 0, 1, 2, 9},
+    {-4, -6, -8, -9, 3, 5, 7, 8},
+    {-3, -5, -7, -9, 2, 4, 6, 8}
+  };
+
+  private Etc2Encoder() {}
+
+  /** Returns the number of bytes an encoded image of the given size takes. */
+  static int getEncodedSize(int width, int height) {
+    return ((width + 3) / 4) * ((height + 3) / 4) * BLOCK_SIZE;
+  }
+
+  /**
+   * Encodes an image.
+   *
+   * @param rgba The pixels, 4 bytes each in RGBA order, row by row from the top.
+   * @return The blocks, row by row from the top.
+   */
+  static byte[] encode(byte[] rgba, int width, int height) {
+    int blocksX = (width + 3) / 4;
+    int blocksY = (height + 3) / 4;
+    byte[] out = new byte[blocksX * blocksY * BLOCK_SIZE];
+    IntStream.range(0, blocksY)
+        .parallel()
+        .forEach(
+            by -> {
+              int[] block = new int[4 * 16];
+              for (int bx = 0; bx < blocksX; ++bx) {
+                readBlock(rgba, width, height, bx * 4, by * 4, block);
+                int offset = (by * blocksX + bx) * BLOCK_SIZE;
+                putLong(out, offset, encodeAlpha(block));
+                putLong(out, offset + 8, encodeColor(block));
+              }
+            });
+    return out;
+  }
+
+  /**
+   * Reads a 4x4 block into {@code block}, pixel {@code x * 4 + y} at {@code 4 * (x * 4 + y)}, the
+   * order pixels are indexed in ETC blocks. Pixels outside the image repeat the edge.
+   */
+  private static void readBlock(byte[] rgba, int width, int height, int x0, int y0, int[] block) {
+    for (int x = 0; x < 4; ++x) {
+      for (int y = 0; y < 4; ++y) {
+        int src = 4 * (Math.min(y0 + y, height - 1) * width + Math.min(x0 + x, width - 1));
+        int dst = 4 * (x * 4 + y);
+        for (int c = 0; c < 4; ++c) {
+          block[dst + c] = rgba[src + c] & 0xFF;
+        }
+      }
+    }
+  }
+
+  private static long encodeAlpha(int[] block) {
+    int min = 255;
+    int max = 0;
+    for (int i = 0; i < 16; ++i) {
+      min = Math.min(min, block[4 * i + 3]);
+      max = Math.max(max, block[4 * i + 3]);
+    }
+    if (min == max) {
+      // Table 13 has a modifier of 0, at index 4.
+      return ((long) min << 56) | (1L << 52) | (13L << 48) | repeatAlphaIndex(4);
+    }
+
+    long best = 0;
+    long bestError = Long.MAX_VALUE;
+    int[] indices = new int[16];
+    for (int table = 0; table < ALPHA_MODIFIERS.length; ++table) {
+      int[] modifiers = ALPHA_MODIFIERS[table];
+      int modifierRange = modifiers[7] - modifiers[3];
+      int estimate = Math.round((float) (max - min) / modifierRange);
+      for (int multiplier = Math.max(1, estimate - 1);
+          multiplier <= Math.min(15, estimate + 1);
+          ++multiplier) {
+        int center = Math.round((min + max - (modifiers[3] + modifiers[7]) * multiplier) / 2.0f);
+        for (int base = center - 1; base <= center + 1; ++base) {
+          if (base < 0 || base > 255) {
+            continue;
+          }
+          long error = 0;
+          for (int i = 0; i < 16 && error < bestError; ++i) {
+            int alpha = block[4 * i + 3];
+            int bestPixelError = Integer.MAX_VALUE;
+            for (int m = 0; m < 8; ++m) {
+              int diff = alpha - clamp(base + modifiers[m] * multiplier);
+              if (diff * diff < bestPixelError) {
+                bestPixelError = diff * diff;
+                indices[i] = m;
+              }
+            }
+            error += bestPixelError;
+          }
+          if (error < bestError) {
+            bestError = error;
+            best = ((long) base << 56) | ((long) multiplier << 52) | ((long) table << 48);
+            for (int i = 0; i < 16; ++i) {
+              best |= (long) indices[i] << (45 - 3 * i);
+            }
+          }
+        }
+      }
+    }
+    return best;
+  }
+
+  private static long repeatAlphaIndex(int index) {
+    long bits = 0;
+    for (int i = 0; i < 16; ++i) {
+      bits |= (long) index << (45 - 3 * i);
+    }
+    return bits;
+  }
+
+  private static long encodeColor(int[] block) {
+    long best = 0;
+    long bestError = Long.MAX_VALUE;
+    float[] average = new float[3];
+    int[] base1 = new int[3];
+    int[] base2 = new int[3];
+    int[] result = new int[2];
+    for (int flip = 0; flip < 2; ++flip) {
+      // Quantize the averages of the two sub-blocks to 5 bits, and use the differential mode if
+      // the second is close enough to the first, otherwise 4 bits and the individual mode.
+      int[] q1 = new int[3];
+      int[] q2 = new int[3];
+      subBlockAverage(block, flip, 0, average);
+      quantize(average, 31, q1);
+      subBlockAverage(block, flip, 1, average);
+      quantize(average, 31, q2);
+      boolean differential = true;
+      for (int c = 0; c < 3; ++c) {
+        int delta = q2[c] - q1[c];
+        differential &= delta >= -4 && delta <= 3;
+      }
+
+      long bits;
+      if (differential) {
+        for (int c = 0; c < 3; ++c) {
+          base1[c] = expand5(q1[c]);
+          base2[c] = expand5(q2[c]);
+        }
+        bits = 1L << 33;
+        bits |= ((long) q1[0] << 59) | ((long) ((q2[0] - q1[0]) & 7) << 56);
+        bits |= ((long) q1[1] << 51) | ((long) ((q2[1] - q1[1]) & 7) << 48);
+        bits |= ((long) q1[2] << 43) | ((long) ((q2[2] - q1[2]) & 7) << 40);
+      } else {
+        subBlockAverage(block, flip, 0, average);
+        quantize(average, 15, q1);
+        subBlockAverage(block, flip, 1, average);
+        quantize(average, 15, q2);
+        for (int c = 0; c < 3; ++c) {
+          base1[c] = q1[c] * 17;
+          base2[c] = q2[c] * 17;
+        }
+        bits = 0;
+        bits |= ((long) q1[0] << 60) | ((long) q2[0] << 56);
+        bits |= ((long) q1[1] << 52) | ((long) q2[1] << 48);
+        bits |= ((long) q1[2] << 44) | ((long) q2[2] << 40);
+      }
+      bits |= (long) flip << 32;
+
+      long error = 0;
+      for (int subBlock = 0; subBlock < 2; ++subBlock) {
+        encodeSubBlock(block, flip, subBlock, subBlock == 0 ? base1 : base2, result);
+        error += result[0];
+        bits |= (long) result[1] << (subBlock == 0 ? 37 : 34);
+      }
+      if (error < bestError) {
+        bestError = error;
+        // Pixel indices are found again for the chosen encoding only.
+        best = bits | pixelIndices(block, flip, bits, base1, base2);
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Finds the best intensity table for a sub-block.
+   *
+   * @param result Receives the error, and the table.
+   */
+  private static void encodeSubBlock(int[] block, int flip, int subBlock, int[] base, int[] result) {
+    int bestError = Integer.MAX_VALUE;
+    int bestTable = 0;
+    for (int table = 0; table < COLOR_MODIFIERS.length; ++table) {
+      int error = 0;
+      for (int i = 0; i < 16 && error < bestError; ++i) {
+        if (getSubBlock(i, flip) == subBlock) {
+          error += bestModifier(block, i, base, table) >>> 2;
+        }
+      }
+      if (error < bestError) {
+        bestError = error;
+        bestTable = table;
+      }
+    }
+    result[0] = bestError;
+    result[1] = bestTable;
+  }
+
+  private static long pixelIndices(int[] block, int flip, long bits, int[] base1, int[] base2) {
+    int table1 = (int) (bits >>> 37) & 7;
+    int table2 = (int) (bits >>> 34) & 7;
+    long indices = 0;
+    for (int i = 0; i < 16; ++i) {
+      boolean first = getSubBlock(i, flip) == 0;
+      int index = bestModifier(block, i, first ? base1 : base2, first ? table1 : table2) & 3;
+      indices |= (long) (index >> 1) << (16 + i);
+      indices |= (long) (index & 1) << i;
+    }
+    return indices;
+  }
+
+  /**
+   * Returns the pixel index of the modifier closest to pixel {@code i}, in the low 2 bits, and the
+   * squared error of it above them.
+   */
+  private static int bestModifier(int[] block, int i, int[] base, int table) {
+    int best = 0;
+    int bestError = Integer.MAX_VALUE;
+    for (int index = 0; index < 4; ++index) {
+      // Pixel index 0 and 1 add the small and large modifier, 2 and 3 subtract them.
+      int modifier = COLOR_MODIFIERS[table][index & 1];
+      if (index >= 2) {
+        modifier = -modifier;
+      }
+      int error = 0;
+      for (int c = 0; c < 3; ++c) {
+        int diff = block[4 * i + c] - clamp(base[c] + modifier);
+        error += diff * diff;
+      }
+      if (error < bestError) {
+        bestError = error;
+        best = index;
+      }
+    }
+    return (bestError << 2) | best;
+  }
+
+  /** Returns 0 for the left or top half of the block, 1 for the other half. */
+  private static int getSubBlock(int i, int flip) {
+    // Pixel i is at x = i / 4, y = i % 4.
+    return flip == 0 ? (i / 4) / 2 : (i % 4) / 2;
+  }
+
+  private static void subBlockAverage(int[] block, int flip, int subBlock, float[] average) {
+    average[0] = average[1] = average[2] = 0;
+    for (int i = 0; i < 16; ++i) {
+      if (getSubBlock(i, flip) == subBlock) {
+        for (int c = 0; c < 3; ++c) {
+          average[c] += block[4 * i + c] / 8.0f;
+        }
+      }
+    }
+  }
+
+  private static void quantize(float[] color, int maxValue, int[] quantized) {
+    for (int c = 0; c < 3; ++c) {
+      quantized[c] = Math.min(maxValue, Math.max(0, Math.round(color[c] * maxValue / 255.0f)));
+    }
+  }
+
+  private static int expand5(int value) {
+    return (value << 3) | (value >> 2);
+  }
+
+  private static int clamp(int value) {
+    return Math.min(255, Math.max(0, value));
+  }
+
+  /** Stores a block big-endian, as ETC blocks are defined. */
+  private static void putLong(byte[] out, int offset, long value) {
+    for (int i = 0; i < 8; ++i) {
+      out[offset + i] = (byte) (value >>> (56 - 8 * i));
+    }
+  }
+}